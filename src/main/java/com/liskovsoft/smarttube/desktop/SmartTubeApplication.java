@@ -3,6 +3,10 @@ package com.liskovsoft.smarttube.desktop;
 import java.io.IOException;
 import java.net.URL;
 
+import com.liskovsoft.smarttube.desktop.media.HlsGateway;
+import com.liskovsoft.smarttube.desktop.media.MediaProxy;
+import com.liskovsoft.smarttube.desktop.service.HttpTransport;
+import com.liskovsoft.smarttube.desktop.ui.BrowseViewController;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -18,10 +22,13 @@ public class SmartTubeApplication extends Application {
     private static final String APP_TITLE = "SmartTube Desktop";
     private static final String APP_VERSION = "1.0.0";
     
+    private BrowseViewController browseViewController;
+    
     @Override
     public void start(Stage primaryStage) throws IOException {        // Load the new BrowseView.fxml
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/liskovsoft/smarttube/desktop/ui/BrowseView.fxml"));
         Parent root = loader.load();
+        browseViewController = loader.getController();
 
         Scene scene = new Scene(root, 1280, 720);
         
@@ -38,6 +45,16 @@ public class SmartTubeApplication extends Application {
         primaryStage.show();
     }
 
+    @Override
+    public void stop() {
+        if (browseViewController != null) {
+            browseViewController.dispose();
+        }
+        HlsGateway.shutdownIfStarted();
+        MediaProxy.shutdownIfStarted();
+        HttpTransport.getInstance().shutdown();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,353 @@
+package com.liskovsoft.smarttube.desktop.media;
+
+import com.liskovsoft.smarttube.desktop.model.VideoFormat;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Localhost gateway that presents a separate video-only and audio-only DASH stream as one HLS stream.
+ * <p>
+ * JavaFX {@code Media} needs a single URL, and YouTube only muxes audio into its low resolution
+ * progressive streams. The gateway serves an HLS master playlist with the video as the main rendition
+ * and the audio as an alternate rendition. Each media playlist lists the fragments from the stream's
+ * sidx box, and every fragment is fetched from the CDN as its own byte range when the player asks for
+ * it. Fragments are passed through as fMP4 without remuxing, so only MP4 (avc1/mp4a) formats that carry
+ * init and index ranges can be served.
+ * <p>
+ * JavaFX's HLS support only covers MPEG-TS segments with muxed H.264/AAC; it ignores alternate
+ * {@code EXT-X-MEDIA} audio renditions and does not play fMP4 ({@code .m4s}) segments. Until the
+ * fragments are remuxed into TS, the gateway is therefore off unless a media stack that can play it is
+ * opted into with {@code -Dsmarttube.media.hlsGateway=true}; see {@link #isEnabled()}.
+ * <p>
+ * Sessions end when the player using them is retired ({@link #unregisterIfStarted(String)}); beyond
+ * that, the least recently requested ones are dropped so abandoned sessions do not accumulate.
+ */
+public class HlsGateway {
+
+    private static final Logger logger = LoggerFactory.getLogger(HlsGateway.class);
+
+    private static final String ENABLED_PROPERTY = "smarttube.media.hlsGateway";
+
+    private static final int MAX_SESSIONS = 8;
+    private static final int WORKER_THREADS = 4;
+    private static final String AUDIO_GROUP = "audio";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static volatile HlsGateway instance;
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final RangeFetcher fetcher = new RangeFetcher();
+    private final MediaSegmentCache cache = MediaSegmentCache.getInstance();
+    /** Access ordered, so the session being played is never the eldest */
+    private final Map<String, Session> sessions = new LinkedHashMap<String, Session>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+
+    private HlsGateway() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "hls-gateway");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(workers);
+        server.createContext("/hls/", this::handle);
+        server.start();
+        logger.info("HLS gateway listening on port {}", server.getAddress().getPort());
+    }
+
+    public static HlsGateway getInstance() {
+        if (instance == null) {
+            synchronized (HlsGateway.class) {
+                if (instance == null) {
+                    try {
+                        instance = new HlsGateway();
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to start HLS gateway: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the gateway if it was ever started, e.g. on application shutdown
+     */
+    public static void shutdownIfStarted() {
+        synchronized (HlsGateway.class) {
+            if (instance != null) {
+                instance.server.stop(0);
+                instance.workers.shutdownNow();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * End the session behind a playlist URL returned by {@link #register}. Other URLs are ignored.
+     */
+    public static void unregisterIfStarted(String url) {
+        HlsGateway gateway = instance;
+        if (gateway == null || url == null) {
+            return;
+        }
+        String prefix = "http://127.0.0.1:" + gateway.server.getAddress().getPort() + "/hls/";
+        if (!url.startsWith(prefix)) {
+            return;
+        }
+        int end = url.indexOf('/', prefix.length());
+        String id = url.substring(prefix.length(), end > 0 ? end : url.length());
+        synchronized (gateway.sessions) {
+            gateway.sessions.remove(id);
+        }
+    }
+
+    /**
+     * Whether the gateway may be used at all ({@code -Dsmarttube.media.hlsGateway=true} enables it).
+     * Off by default because the stock JavaFX player cannot play what it serves.
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "false"));
+    }
+
+    /**
+     * Whether this pair of formats can be served through the gateway, and the gateway is enabled
+     */
+    public static boolean canServe(VideoFormat video, VideoFormat audio) {
+        return isEnabled() && video != null && audio != null
+            && video.isVideoOnly() && audio.isAudioOnly()
+            && isMp4(video) && isMp4(audio)
+            && video.hasSegmentIndex() && audio.hasSegmentIndex();
+    }
+
+    private static boolean isMp4(VideoFormat format) {
+        return format.getMimeType() != null && format.getMimeType().endsWith("/mp4");
+    }
+
+    /**
+     * Register a video/audio pair and return the master playlist URL to hand to the player
+     *
+     * @param videoId used to key fragments in the on-disk segment cache, may be null to bypass it
+     */
+    public String register(String videoId, VideoFormat video, VideoFormat audio) {
+        if (!canServe(video, audio)) {
+            throw new IllegalArgumentException("Formats cannot be served as HLS");
+        }
+        String id = UUID.randomUUID().toString();
+        synchronized (sessions) {
+            sessions.put(id, new Session(new Track(videoId, video), new Track(videoId, audio)));
+        }
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/hls/" + id + "/master.m3u8";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            // /hls/{session}/master.m3u8 or /hls/{session}/{v|a}/{resource}
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            Session session;
+            synchronized (sessions) {
+                session = parts.length > 3 ? sessions.get(parts[2]) : null;
+            }
+            if (session == null) {
+                sendError(exchange, 404);
+                return;
+            }
+
+            if (parts.length == 4 && "master.m3u8".equals(parts[3])) {
+                sendPlaylist(exchange, masterPlaylist(session));
+                return;
+            }
+            Track track = parts.length == 5 ? session.track(parts[3]) : null;
+            if (track == null) {
+                sendError(exchange, 404);
+                return;
+            }
+
+            String resource = parts[4];
+            SegmentIndex index = track.index(fetcher);
+            if ("index.m3u8".equals(resource)) {
+                sendPlaylist(exchange, mediaPlaylist(index));
+            } else if ("init.mp4".equals(resource)) {
+                sendRange(exchange, track, index.getInitStart(), index.getInitEnd());
+            } else if (resource.endsWith(".m4s")) {
+                int number = Integer.parseInt(resource.substring(0, resource.length() - 4));
+                if (number < 0 || number >= index.getSegments().size()) {
+                    sendError(exchange, 404);
+                    return;
+                }
+                SegmentIndex.Segment segment = index.getSegments().get(number);
+                sendRange(exchange, track, segment.getStart(), segment.getEnd());
+            } else {
+                sendError(exchange, 404);
+            }
+        } catch (NumberFormatException e) {
+            sendError(exchange, 404);
+        } catch (IOException e) {
+            logger.warn("HLS gateway upstream error for {}: {}", exchange.getRequestURI(), e.getMessage());
+            sendError(exchange, 502);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String masterPlaylist(Session session) {
+        VideoFormat video = session.video.format;
+        VideoFormat audio = session.audio.format;
+        StringBuilder playlist = new StringBuilder()
+            .append("#EXTM3U\n")
+            .append("#EXT-X-VERSION:7\n")
+            .append("#EXT-X-INDEPENDENT-SEGMENTS\n")
+            .append("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"").append(AUDIO_GROUP)
+            .append("\",NAME=\"default\",DEFAULT=YES,AUTOSELECT=YES,URI=\"a/index.m3u8\"\n")
+            .append("#EXT-X-STREAM-INF:BANDWIDTH=").append(Math.max(video.getBitrate() + audio.getBitrate(), 1));
+        if (video.getWidth() > 0 && video.getHeight() > 0) {
+            playlist.append(",RESOLUTION=").append(video.getWidth()).append('x').append(video.getHeight());
+        }
+        if (isCodecString(video.getVideoCodec()) && isCodecString(audio.getAudioCodec())) {
+            playlist.append(",CODECS=\"").append(video.getVideoCodec()).append(',').append(audio.getAudioCodec()).append('"');
+        }
+        playlist.append(",AUDIO=\"").append(AUDIO_GROUP).append("\"\n")
+            .append("v/index.m3u8\n");
+        return playlist.toString();
+    }
+
+    /**
+     * RFC 6381 codec identifiers look like "avc1.640028"; container names such as "MPEG-4" are not usable
+     */
+    private static boolean isCodecString(String codec) {
+        return codec != null && codec.indexOf('.') > 0;
+    }
+
+    private static String mediaPlaylist(SegmentIndex index) {
+        StringBuilder playlist = new StringBuilder()
+            .append("#EXTM3U\n")
+            .append("#EXT-X-VERSION:7\n")
+            .append("#EXT-X-TARGETDURATION:").append((long) Math.ceil(index.getMaxSegmentDuration())).append('\n')
+            .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+            .append("#EXT-X-PLAYLIST-TYPE:VOD\n")
+            .append("#EXT-X-INDEPENDENT-SEGMENTS\n")
+            .append("#EXT-X-MAP:URI=\"init.mp4\"\n");
+        List<SegmentIndex.Segment> segments = index.getSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", segments.get(i).getDurationSeconds()))
+                .append(i).append(".m4s\n");
+        }
+        playlist.append("#EXT-X-ENDLIST\n");
+        return playlist.toString();
+    }
+
+    private static void sendPlaylist(HttpExchange exchange, String playlist) throws IOException {
+        byte[] body = playlist.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/vnd.apple.mpegurl");
+        sendBody(exchange, body);
+    }
+
+    private static void sendBody(HttpExchange exchange, byte[] body) throws IOException {
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(200, head ? -1 : body.length);
+        if (!head) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private void sendRange(HttpExchange exchange, Track track, long start, long end) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(end - start + 1));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        // Fetch before committing to a status so an upstream failure can still be reported as 502
+        ByteBuffer body = track.key != null ? cache.read(track.key, start, end) : null;
+        if (body == null) {
+            byte[] fetched = fetcher.fetch(track.format.getUrl(), start, end);
+            if (track.key != null) {
+                cache.write(track.key, start, end, fetched);
+            }
+            body = ByteBuffer.wrap(fetched);
+        }
+
+        exchange.sendResponseHeaders(200, body.remaining());
+        try (OutputStream out = exchange.getResponseBody()) {
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            while (body.hasRemaining()) {
+                int length = Math.min(body.remaining(), buffer.length);
+                body.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int code) {
+        try {
+            exchange.sendResponseHeaders(code, -1);
+        } catch (IOException e) {
+            // Headers were already sent; the connection is closed by the caller
+        }
+    }
+
+    private static final class Session {
+        final Track video;
+        final Track audio;
+
+        Session(Track video, Track audio) {
+            this.video = video;
+            this.audio = audio;
+        }
+
+        Track track(String name) {
+            if ("v".equals(name)) {
+                return video;
+            } else if ("a".equals(name)) {
+                return audio;
+            }
+            return null;
+        }
+    }
+
+    private static final class Track {
+        final VideoFormat format;
+        final MediaKey key;
+        private SegmentIndex index;
+
+        Track(String videoId, VideoFormat format) {
+            this.format = format;
+            this.key = MediaKey.of(videoId, format);
+        }
+
+        /**
+         * The stream's segment index, fetched from the CDN on first use
+         */
+        synchronized SegmentIndex index(RangeFetcher fetcher) throws IOException {
+            if (index == null) {
+                byte[] sidx = fetcher.fetch(format.getUrl(), format.getIndexStart(), format.getIndexEnd());
+                index = SegmentIndex.parse(format.getInitStart(), format.getInitEnd(), sidx, format.getIndexEnd());
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.liskovsoft.smarttube.desktop.media;
+
+import com.liskovsoft.smarttube.desktop.model.VideoFormat;
+
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Identifies the bytes of one stream independently of its signed, expiring URL.
+ * <p>
+ * The itag alone is not enough: a video's dubbed and drc audio tracks share one itag. They differ in the
+ * URL's {@code xtags} parameter and in byte length, so both are part of the key.
+ */
+public final class MediaKey {
+
+    private static final Pattern XTAGS_PARAM = Pattern.compile("[?&]xtags=([^&]+)");
+    private static final Pattern CONTENT_LENGTH_PARAM = Pattern.compile("[?&]clen=(\\d+)");
+
+    private final String videoId;
+    private final int itag;
+    private final String variant;
+
+    private MediaKey(String videoId, int itag, String variant) {
+        this.videoId = videoId;
+        this.itag = itag;
+        this.variant = variant;
+    }
+
+    /**
+     * Key for a stream of a video, or null if the video id or itag is unknown
+     */
+    public static MediaKey of(String videoId, VideoFormat format) {
+        if (videoId == null || videoId.isEmpty() || format == null || format.getItag() <= 0) {
+            return null;
+        }
+        return new MediaKey(videoId, format.getItag(), variantOf(format));
+    }
+
+    /**
+     * Track tags plus byte length, e.g. {@code "lang%3Dde:1843225"}; empty when neither is known
+     */
+    private static String variantOf(VideoFormat format) {
+        String url = format.getUrl() != null ? format.getUrl() : "";
+        Matcher xtags = XTAGS_PARAM.matcher(url);
+        String tags = xtags.find() ? xtags.group(1) : "";
+
+        long length = format.getContentLength();
+        if (length <= 0) {
+            Matcher clen = CONTENT_LENGTH_PARAM.matcher(url);
+            length = clen.find() ? Long.parseLong(clen.group(1)) : 0;
+        }
+        if (tags.isEmpty() && length <= 0) {
+            return "";
+        }
+        return tags + ":" + (length > 0 ? length : "");
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public int getItag() {
+        return itag;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MediaKey that = (MediaKey) o;
+        return itag == that.itag && videoId.equals(that.videoId) && variant.equals(that.variant);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(videoId, itag, variant);
+    }
+
+    @Override
+    public String toString() {
+        return variant.isEmpty() ? videoId + "/" + itag : videoId + "/" + itag + "/" + variant;
+    }
+}
@@ -0,0 +1,624 @@
+package com.liskovsoft.smarttube.desktop.media;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Localhost read-ahead proxy between the player and the CDN.
+ * <p>
+ * JavaFX downloads a progressive stream over one connection, which the CDN throttles per connection.
+ * The proxy splits the stream into fixed-size chunks, fetches the chunks ahead of the player's read
+ * position in parallel over pooled connections, and answers the player's range requests from that
+ * bounded buffer. Every completed chunk is reported to a {@link ThroughputListener}, so bandwidth
+ * estimation sees real byte counts.
+ * <p>
+ * Chunk downloads are queued by urgency: a chunk the player is blocked on goes first, then read-ahead,
+ * then speculative seek prefetches. When the player jumps, read-ahead still queued for the old position
+ * is cancelled.
+ */
+public class MediaProxy {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaProxy.class);
+
+    private static final String ENABLED_PROPERTY = "smarttube.media.proxy";
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int READ_AHEAD_CHUNKS = 8;
+    private static final int MAX_BUFFERED_CHUNKS = 24;
+    private static final int PARALLEL_FETCHES = 4;
+    private static final int MAX_PREFETCH_IN_FLIGHT = 8;
+    private static final int MAX_SESSIONS = 4;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /** Chunk download priorities, most urgent first */
+    private static final int PRIORITY_NEEDED = 0;
+    private static final int PRIORITY_READ_AHEAD = 1;
+    private static final int PRIORITY_SPECULATIVE = 2;
+
+    private static final AtomicLong FETCH_SEQUENCE = new AtomicLong();
+
+    private static final Pattern RANGE_HEADER = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final Pattern CONTENT_LENGTH_PARAM = Pattern.compile("[?&]clen=(\\d+)");
+    private static final Pattern MIME_PARAM = Pattern.compile("[?&]mime=([^&]+)");
+
+    private static volatile MediaProxy instance;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ThreadPoolExecutor fetchers;
+    private final RangeFetcher fetcher = new RangeFetcher();
+    private final MediaSegmentCache cache = MediaSegmentCache.getInstance();
+    /** Access ordered, so the least recently used stream is dropped first */
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Receives one sample per downloaded chunk
+     */
+    public interface ThroughputListener {
+        void onSample(long bytes, long durationNanos);
+    }
+
+    private MediaProxy() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        handlers = Executors.newCachedThreadPool(daemonThreads("media-proxy"));
+        fetchers = new ThreadPoolExecutor(PARALLEL_FETCHES, PARALLEL_FETCHES, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), daemonThreads("media-proxy-fetch"));
+        server.setExecutor(handlers);
+        server.createContext("/media/", this::handle);
+        server.start();
+        logger.info("Media proxy listening on port {}", server.getAddress().getPort());
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static MediaProxy getInstance() {
+        if (instance == null) {
+            synchronized (MediaProxy.class) {
+                if (instance == null) {
+                    try {
+                        instance = new MediaProxy();
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to start media proxy: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Whether media should be routed through the proxy ({@code -Dsmarttube.media.proxy=false} disables it)
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    }
+
+    /**
+     * Stop the proxy if it was ever started, e.g. on application shutdown
+     */
+    public static void shutdownIfStarted() {
+        synchronized (MediaProxy.class) {
+            if (instance != null) {
+                instance.server.stop(0);
+                instance.handlers.shutdownNow();
+                instance.fetchers.shutdownNow();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Register an upstream media URL and return the local URL to hand to the player
+     *
+     * @param key      identifies the stream for the on-disk segment cache, may be null to bypass it
+     * @param listener receives throughput samples for this stream, may be null
+     */
+    public String register(String upstreamUrl, MediaKey key, ThroughputListener listener) {
+        String id = UUID.randomUUID().toString();
+        synchronized (sessions) {
+            sessions.put(id, new Session(upstreamUrl, key, listener));
+            evictIdleSessions(id);
+        }
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/media/" + id;
+    }
+
+    /**
+     * Drop least recently used streams over the cap. A stream the player is still reading is never dropped,
+     * so the cap is exceeded rather than failing playback mid-stream.
+     */
+    private void evictIdleSessions(String keepId) {
+        Iterator<Map.Entry<String, Session>> iterator = sessions.entrySet().iterator();
+        while (sessions.size() > MAX_SESSIONS && iterator.hasNext()) {
+            Map.Entry<String, Session> entry = iterator.next();
+            if (!entry.getKey().equals(keepId) && entry.getValue().activeReaders.get() == 0) {
+                entry.getValue().release();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop the buffer of a stream returned by {@link #register}
+     */
+    public void release(String proxyUrl) {
+        Session session;
+        synchronized (sessions) {
+            session = sessions.remove(proxyUrl.substring(proxyUrl.lastIndexOf('/') + 1));
+        }
+        if (session != null) {
+            session.release();
+        }
+    }
+
+    /**
+     * Start downloading {@code chunkCount} chunks at the byte offset where playback of {@code seconds}
+     * will read, e.g. ahead of a seek. Returns immediately.
+     *
+     * @param durationSeconds media duration, used for a proportional estimate until the file's sample
+     *                        tables have been read
+     */
+    public void prefetchAt(String proxyUrl, double seconds, double durationSeconds, int chunkCount) {
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(proxyUrl.substring(proxyUrl.lastIndexOf('/') + 1));
+        }
+        if (session == null) {
+            return;
+        }
+        handlers.execute(() -> {
+            try {
+                session.prefetchAt(seconds, durationSeconds, chunkCount);
+            } catch (IOException e) {
+                logger.debug("Seek prefetch failed: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Buffer state of a stream returned by {@link #register}, or null if it is no longer registered
+     */
+    public BufferHealth getBufferHealth(String proxyUrl) {
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(proxyUrl.substring(proxyUrl.lastIndexOf('/') + 1));
+        }
+        return session != null ? session.health() : null;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Session session = null;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            synchronized (sessions) {
+                session = sessions.get(path.substring(path.lastIndexOf('/') + 1));
+                if (session != null) {
+                    session.activeReaders.incrementAndGet();
+                }
+            }
+            if (session == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            serve(exchange, session);
+        } catch (IOException e) {
+            // Usually the player dropping the connection after a seek
+            logger.debug("Media proxy request ended: {}", e.getMessage());
+        } finally {
+            if (session != null) {
+                session.activeReaders.decrementAndGet();
+            }
+            exchange.close();
+        }
+    }
+
+    private void serve(HttpExchange exchange, Session session) throws IOException {
+        long length;
+        try {
+            length = session.length();
+        } catch (IOException e) {
+            logger.warn("Media proxy upstream error: {}", e.getMessage());
+            exchange.sendResponseHeaders(502, -1);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range != null ? RANGE_HEADER.matcher(range) : null;
+        boolean partial = matcher != null && matcher.matches();
+        if (partial) {
+            if (!matcher.group(1).isEmpty()) {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(Long.parseLong(matcher.group(2)), length - 1);
+                }
+            } else if (!matcher.group(2).isEmpty()) {
+                start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+            }
+            if (start > end) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("Content-Type", session.mimeType);
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(end - start + 1));
+            exchange.sendResponseHeaders(partial ? 206 : 200, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(partial ? 206 : 200, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            long position = start;
+            while (position <= end) {
+                long chunkIndex = position / CHUNK_SIZE;
+                session.readAhead(chunkIndex);
+                ByteBuffer chunk = session.await(chunkIndex).duplicate();
+                int offset = (int) (position - chunkIndex * CHUNK_SIZE);
+                int count = (int) Math.min(chunk.limit() - offset, end - position + 1);
+                if (count <= 0) {
+                    throw new IOException("Upstream returned a short chunk");
+                }
+                // Copy out through a small buffer; the chunk stays shared with other readers
+                chunk.position(offset);
+                chunk.limit(offset + count);
+                while (chunk.hasRemaining()) {
+                    int piece = Math.min(chunk.remaining(), buffer.length);
+                    chunk.get(buffer, 0, piece);
+                    out.write(buffer, 0, piece);
+                }
+                position += count;
+                session.readPosition = position;
+            }
+        }
+    }
+
+    /**
+     * Snapshot of a stream's read-ahead buffer
+     */
+    public static final class BufferHealth {
+        private final long bufferedAheadBytes;
+        private final int chunksInFlight;
+        private final long stallCount;
+        private final long bytesFetched;
+
+        BufferHealth(long bufferedAheadBytes, int chunksInFlight, long stallCount, long bytesFetched) {
+            this.bufferedAheadBytes = bufferedAheadBytes;
+            this.chunksInFlight = chunksInFlight;
+            this.stallCount = stallCount;
+            this.bytesFetched = bytesFetched;
+        }
+
+        /** Downloaded bytes directly following the player's read position */
+        public long getBufferedAheadBytes() {
+            return bufferedAheadBytes;
+        }
+
+        public int getChunksInFlight() {
+            return chunksInFlight;
+        }
+
+        /** Times the player had to wait for a chunk that was not downloaded yet */
+        public long getStallCount() {
+            return stallCount;
+        }
+
+        public long getBytesFetched() {
+            return bytesFetched;
+        }
+    }
+
+    private final class Session {
+        final String url;
+        final String mimeType;
+        final MediaKey key;
+        final ThroughputListener listener;
+        /** Access ordered, so the least recently read completed chunk is evicted first */
+        final LinkedHashMap<Long, ChunkFetch> chunks = new LinkedHashMap<>(16, 0.75f, true);
+        final AtomicLong stallCount = new AtomicLong();
+        final AtomicLong bytesFetched = new AtomicLong();
+        /** Requests currently being served; the session is kept while this is non-zero */
+        final AtomicInteger activeReaders = new AtomicInteger();
+
+        volatile long readPosition;
+        private long lastReadChunk = -1;
+        private long length = -1;
+        private volatile Mp4SampleIndex sampleIndex;
+        private long lastCompletionNanos;
+        private boolean released;
+
+        Session(String url, MediaKey key, ThroughputListener listener) {
+            this.url = url;
+            this.key = key;
+            this.listener = listener;
+            this.mimeType = parseMimeType(url);
+            Matcher matcher = CONTENT_LENGTH_PARAM.matcher(url);
+            if (matcher.find()) {
+                length = Long.parseLong(matcher.group(1));
+            }
+        }
+
+        synchronized long length() throws IOException {
+            if (length < 0) {
+                length = fetcher.fetchLength(url);
+            }
+            return length;
+        }
+
+        /**
+         * Make sure the chunks from {@code index} up to the read-ahead window are downloaded or downloading
+         */
+        void prefetchAt(double seconds, double durationSeconds, int chunkCount) throws IOException {
+            long offset;
+            Mp4SampleIndex index = sampleIndex;
+            if (index != null) {
+                offset = index.offsetAt(seconds);
+            } else if (durationSeconds > 0) {
+                offset = (long) (length() * Math.min(Math.max(seconds / durationSeconds, 0), 1));
+            } else {
+                return;
+            }
+
+            long firstChunk = Math.min(offset, length() - 1) / CHUNK_SIZE;
+            long lastChunk = Math.min(firstChunk + chunkCount - 1, (length() - 1) / CHUNK_SIZE);
+            synchronized (this) {
+                for (long i = firstChunk; i <= lastChunk; i++) {
+                    // Scrubbing fires many seeks; do not let speculative downloads pile up behind each other
+                    if (!chunks.containsKey(i) && countInFlight() >= MAX_PREFETCH_IN_FLIGHT) {
+                        break;
+                    }
+                    chunk(i, PRIORITY_SPECULATIVE);
+                }
+                evict();
+            }
+        }
+
+        void readAhead(long index) throws IOException {
+            long lastChunk = Math.min(index + READ_AHEAD_CHUNKS, (length() - 1) / CHUNK_SIZE);
+            synchronized (this) {
+                if (lastReadChunk >= 0 && (index < lastReadChunk || index > lastReadChunk + 1)) {
+                    // The player jumped; read-ahead still queued for the old position would delay the new one
+                    cancelQueuedReadAhead(index, lastChunk);
+                }
+                lastReadChunk = index;
+                for (long i = index; i <= lastChunk; i++) {
+                    chunk(i, PRIORITY_READ_AHEAD);
+                }
+                evict();
+            }
+        }
+
+        ByteBuffer await(long index) throws IOException {
+            ChunkFetch fetch;
+            synchronized (this) {
+                fetch = chunk(index, PRIORITY_NEEDED);
+            }
+            if (!fetch.future.isDone()) {
+                stallCount.incrementAndGet();
+            }
+            try {
+                return fetch.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for media", e);
+            } catch (CancellationException e) {
+                throw new IOException("Stream released", e);
+            } catch (ExecutionException | CompletionException e) {
+                synchronized (this) {
+                    chunks.remove(index, fetch);
+                }
+                throw new IOException("Chunk download failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        private ChunkFetch chunk(long index, int priority) throws IOException {
+            if (released) {
+                throw new IOException("Stream released");
+            }
+            ChunkFetch fetch = chunks.get(index);
+            if (fetch == null) {
+                fetch = new ChunkFetch(index, priority);
+                chunks.put(index, fetch);
+                fetchers.execute(fetch);
+            } else if (priority < fetch.priority && !fetch.started && fetchers.remove(fetch)) {
+                // Still queued: move it ahead of less urgent downloads
+                fetch.priority = priority;
+                fetchers.execute(fetch);
+            }
+            return fetch;
+        }
+
+        /**
+         * Cancel read-ahead that has not started and lies outside the new window. Chunks a reader is blocked
+         * on and speculative prefetches are left alone; the latter already queue behind everything else.
+         */
+        private void cancelQueuedReadAhead(long first, long last) {
+            Iterator<ChunkFetch> iterator = chunks.values().iterator();
+            while (iterator.hasNext()) {
+                ChunkFetch fetch = iterator.next();
+                if (!fetch.started && fetch.priority == PRIORITY_READ_AHEAD && (fetch.index < first || fetch.index > last)) {
+                    fetch.future.cancel(false);
+                    fetchers.remove(fetch);
+                    iterator.remove();
+                }
+            }
+        }
+
+        private ByteBuffer download(long start, long end) {
+            ByteBuffer data = key != null ? cache.read(key, start, end) : null;
+            if (data == null) {
+                long startNanos = System.nanoTime();
+                byte[] fetched;
+                try {
+                    fetched = fetcher.fetch(url, start, end);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                bytesFetched.addAndGet(fetched.length);
+                reportSample(fetched.length, startNanos);
+                if (key != null) {
+                    cache.write(key, start, end, fetched);
+                }
+                data = ByteBuffer.wrap(fetched);
+            }
+            if (start == 0) {
+                // Progressive files keep their moov box up front; it maps seek times to byte offsets
+                sampleIndex = Mp4SampleIndex.parse(data);
+            }
+            return data;
+        }
+
+        /**
+         * Chunks download in parallel, so the time since the previous completion rather than the chunk's own
+         * download time is what reflects the aggregate throughput
+         */
+        private void reportSample(long bytes, long startNanos) {
+            long now = System.nanoTime();
+            long since;
+            synchronized (this) {
+                since = Math.max(startNanos, lastCompletionNanos);
+                lastCompletionNanos = now;
+            }
+            if (listener != null) {
+                listener.onSample(bytes, now - since);
+            }
+        }
+
+        private void evict() {
+            Iterator<ChunkFetch> iterator = chunks.values().iterator();
+            while (chunks.size() > MAX_BUFFERED_CHUNKS && iterator.hasNext()) {
+                if (iterator.next().future.isDone()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        private int countInFlight() {
+            int inFlight = 0;
+            for (ChunkFetch fetch : chunks.values()) {
+                if (!fetch.future.isDone()) {
+                    inFlight++;
+                }
+            }
+            return inFlight;
+        }
+
+        synchronized BufferHealth health() {
+            long position = readPosition;
+            long ahead = 0;
+            int inFlight = countInFlight();
+            // Bytes available without waiting, counted from the read position to the first missing chunk
+            for (long index = position / CHUNK_SIZE; ; index++) {
+                ChunkFetch fetch = chunks.get(index);
+                if (fetch == null || !fetch.future.isDone() || fetch.future.isCompletedExceptionally()) {
+                    break;
+                }
+                ahead += fetch.future.join().limit() - Math.max(0, position - index * CHUNK_SIZE);
+            }
+            return new BufferHealth(ahead, inFlight, stallCount.get(), bytesFetched.get());
+        }
+
+        synchronized void release() {
+            released = true;
+            for (ChunkFetch fetch : chunks.values()) {
+                fetch.future.cancel(false);
+                fetchers.remove(fetch);
+            }
+            chunks.clear();
+        }
+
+        /**
+         * One chunk download, ordered in the shared fetch queue by priority and then by request order
+         */
+        private final class ChunkFetch implements Runnable, Comparable<ChunkFetch> {
+            final long index;
+            final long sequence = FETCH_SEQUENCE.incrementAndGet();
+            final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+            /** Only changed while the fetch is out of the queue */
+            int priority;
+            /** Guarded by the session */
+            boolean started;
+
+            ChunkFetch(long index, int priority) {
+                this.index = index;
+                this.priority = priority;
+            }
+
+            @Override
+            public void run() {
+                synchronized (Session.this) {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    started = true;
+                }
+                long start = index * CHUNK_SIZE;
+                long end = Math.min(start + CHUNK_SIZE, length) - 1;
+                try {
+                    future.complete(download(start, end));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public int compareTo(ChunkFetch other) {
+                if (priority != other.priority) {
+                    return Integer.compare(priority, other.priority);
+                }
+                return Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+
+    private static String parseMimeType(String url) {
+        Matcher matcher = MIME_PARAM.matcher(url);
+        if (matcher.find()) {
+            try {
+                return URLDecoder.decode(matcher.group(1), "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                // Fall through to the default
+            }
+        }
+        return "video/mp4";
+    }
+}
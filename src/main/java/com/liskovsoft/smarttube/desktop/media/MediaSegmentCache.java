@@ -0,0 +1,99 @@
+package com.liskovsoft.smarttube.desktop.media;
+
+import com.liskovsoft.smarttube.desktop.service.DiskLruStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of downloaded media byte ranges, keyed by {@link MediaKey} and byte range.
+ * <p>
+ * The key does not include the stream URL, which is signed and expires, so a rewatch days later is
+ * still served from disk. Entries are evicted least recently used once the byte budget
+ * ({@code -Dsmarttube.media.cacheMaxBytes}, 2 GB by default) is exceeded. Cached ranges are copied out
+ * rather than memory-mapped: a mapped file cannot be deleted or replaced on Windows until the mapping is
+ * garbage collected, which would break eviction.
+ */
+public class MediaSegmentCache {
+
+    private static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+
+    private static volatile MediaSegmentCache instance;
+
+    private final DiskLruStore store;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public MediaSegmentCache(DiskLruStore store) {
+        this.store = store;
+    }
+
+    public static MediaSegmentCache getInstance() {
+        if (instance == null) {
+            synchronized (MediaSegmentCache.class) {
+                if (instance == null) {
+                    long maxBytes = Long.getLong("smarttube.media.cacheMaxBytes", DEFAULT_MAX_BYTES);
+                    instance = new MediaSegmentCache(new DiskLruStore(DiskLruStore.cacheDirectory("media"), maxBytes));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Cached bytes {@code start} to {@code end} (inclusive) of a stream, or null
+     */
+    public ByteBuffer read(MediaKey key, long start, long end) {
+        File file = store.getFile(entryKey(key, start, end));
+        if (file == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != end - start + 1) {
+                store.remove(entryKey(key, start, end));
+                missCount.incrementAndGet();
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Cache entry truncated while reading");
+                }
+            }
+            buffer.flip();
+            hitCount.incrementAndGet();
+            return buffer;
+        } catch (IOException e) {
+            // Usually the entry being evicted or replaced under us, not corruption; leave it to the store
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void write(MediaKey key, long start, long end, byte[] data) {
+        if (data.length == end - start + 1) {
+            store.put(entryKey(key, start, end), data);
+        }
+    }
+
+    private static String entryKey(MediaKey key, long start, long end) {
+        return DiskLruStore.hashKey(key + "/" + start + "-" + end);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getTotalBytes() {
+        return store.getTotalBytes();
+    }
+}
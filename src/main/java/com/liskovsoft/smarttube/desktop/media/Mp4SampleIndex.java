@@ -0,0 +1,191 @@
+package com.liskovsoft.smarttube.desktop.media;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps playback time to a byte offset in a progressive MP4 file using the video track's sample tables.
+ * <p>
+ * Only the boxes needed for that are read: the media timescale (mdhd), time-to-sample (stts),
+ * sample-to-chunk (stsc) and chunk offsets (stco/co64). The result is the offset of the chunk holding
+ * the sample at the requested time, which is where the player will start reading after a seek.
+ */
+public class Mp4SampleIndex {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final long timescale;
+    private final long[] sttsCounts;
+    private final long[] sttsDeltas;
+    private final long[] stscFirstChunks;
+    private final long[] stscSamplesPerChunk;
+    private final long[] chunkOffsets;
+
+    private Mp4SampleIndex(long timescale, long[] sttsCounts, long[] sttsDeltas,
+                           long[] stscFirstChunks, long[] stscSamplesPerChunk, long[] chunkOffsets) {
+        this.timescale = timescale;
+        this.sttsCounts = sttsCounts;
+        this.sttsDeltas = sttsDeltas;
+        this.stscFirstChunks = stscFirstChunks;
+        this.stscSamplesPerChunk = stscSamplesPerChunk;
+        this.chunkOffsets = chunkOffsets;
+    }
+
+    /**
+     * Parse the moov box from the start of a file.
+     *
+     * @param data the first bytes of the file, from position 0 to its limit
+     * @return the index, or null if {@code data} does not contain a complete moov box with a video track
+     */
+    public static Mp4SampleIndex parse(ByteBuffer data) {
+        try {
+            ByteBuffer buffer = data.duplicate();
+            int[] moov = findBox(buffer, 0, buffer.limit(), "moov");
+            if (moov == null) {
+                return null;
+            }
+            for (int offset = moov[0]; offset < moov[1]; ) {
+                int[] trak = findBox(buffer, offset, moov[1], "trak");
+                if (trak == null) {
+                    return null;
+                }
+                Mp4SampleIndex index = parseTrack(buffer, trak[0], trak[1]);
+                if (index != null) {
+                    return index;
+                }
+                offset = trak[1];
+            }
+            return null;
+        } catch (RuntimeException e) {
+            // Truncated or unexpected layout; callers fall back to a linear estimate
+            return null;
+        }
+    }
+
+    private static Mp4SampleIndex parseTrack(ByteBuffer buffer, int start, int end) {
+        int[] mdia = findBox(buffer, start, end, "mdia");
+        if (mdia == null) {
+            return null;
+        }
+        int[] hdlr = findBox(buffer, mdia[0], mdia[1], "hdlr");
+        if (hdlr == null || !"vide".equals(fourCc(buffer, hdlr[0] + 8))) {
+            return null;
+        }
+        int[] mdhd = findBox(buffer, mdia[0], mdia[1], "mdhd");
+        int[] minf = findBox(buffer, mdia[0], mdia[1], "minf");
+        int[] stbl = minf != null ? findBox(buffer, minf[0], minf[1], "stbl") : null;
+        if (mdhd == null || stbl == null) {
+            return null;
+        }
+
+        int version = buffer.get(mdhd[0]) & 0xFF;
+        long timescale = uint32(buffer, mdhd[0] + (version == 1 ? 20 : 12));
+
+        int[] stts = findBox(buffer, stbl[0], stbl[1], "stts");
+        int[] stsc = findBox(buffer, stbl[0], stbl[1], "stsc");
+        int[] stco = findBox(buffer, stbl[0], stbl[1], "stco");
+        int[] co64 = stco == null ? findBox(buffer, stbl[0], stbl[1], "co64") : null;
+        if (stts == null || stsc == null || (stco == null && co64 == null) || timescale == 0) {
+            return null;
+        }
+
+        int sttsEntries = (int) uint32(buffer, stts[0] + 4);
+        long[] counts = new long[sttsEntries];
+        long[] deltas = new long[sttsEntries];
+        for (int i = 0; i < sttsEntries; i++) {
+            counts[i] = uint32(buffer, stts[0] + 8 + i * 8);
+            deltas[i] = uint32(buffer, stts[0] + 12 + i * 8);
+        }
+
+        int stscEntries = (int) uint32(buffer, stsc[0] + 4);
+        long[] firstChunks = new long[stscEntries];
+        long[] samplesPerChunk = new long[stscEntries];
+        for (int i = 0; i < stscEntries; i++) {
+            firstChunks[i] = uint32(buffer, stsc[0] + 8 + i * 12);
+            samplesPerChunk[i] = uint32(buffer, stsc[0] + 12 + i * 12);
+        }
+
+        int[] offsets = stco != null ? stco : co64;
+        int chunkCount = (int) uint32(buffer, offsets[0] + 4);
+        long[] chunkOffsets = new long[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunkOffsets[i] = stco != null
+                ? uint32(buffer, offsets[0] + 8 + i * 4)
+                : buffer.getLong(offsets[0] + 8 + i * 8);
+        }
+        return new Mp4SampleIndex(timescale, counts, deltas, firstChunks, samplesPerChunk, chunkOffsets);
+    }
+
+    /**
+     * Byte offset of the chunk that holds the video sample playing at {@code seconds}
+     */
+    public long offsetAt(double seconds) {
+        if (chunkOffsets.length == 0) {
+            return 0;
+        }
+        long sample = sampleAt((long) (Math.max(0, seconds) * timescale));
+
+        long firstSampleOfEntry = 0;
+        for (int i = 0; i < stscFirstChunks.length; i++) {
+            long firstChunk = stscFirstChunks[i];
+            long nextFirstChunk = i + 1 < stscFirstChunks.length ? stscFirstChunks[i + 1] : chunkOffsets.length + 1;
+            long samplesInEntry = (nextFirstChunk - firstChunk) * stscSamplesPerChunk[i];
+            if (sample < firstSampleOfEntry + samplesInEntry || i == stscFirstChunks.length - 1) {
+                long chunk = firstChunk - 1 + (sample - firstSampleOfEntry) / Math.max(stscSamplesPerChunk[i], 1);
+                return chunkOffsets[(int) Math.min(Math.max(chunk, 0), chunkOffsets.length - 1)];
+            }
+            firstSampleOfEntry += samplesInEntry;
+        }
+        return chunkOffsets[chunkOffsets.length - 1];
+    }
+
+    private long sampleAt(long time) {
+        long sample = 0;
+        long elapsed = 0;
+        for (int i = 0; i < sttsCounts.length; i++) {
+            long entryDuration = sttsCounts[i] * sttsDeltas[i];
+            if (time < elapsed + entryDuration && sttsDeltas[i] > 0) {
+                return sample + (time - elapsed) / sttsDeltas[i];
+            }
+            elapsed += entryDuration;
+            sample += sttsCounts[i];
+        }
+        return Math.max(sample - 1, 0);
+    }
+
+    /**
+     * Payload bounds {start, end} of the first box of the given type within [from, to), or null
+     */
+    private static int[] findBox(ByteBuffer buffer, int from, int to, String type) {
+        int offset = from;
+        while (offset + HEADER_SIZE <= to) {
+            long size = uint32(buffer, offset);
+            int headerSize = HEADER_SIZE;
+            if (size == 1) {
+                size = buffer.getLong(offset + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = to - offset;
+            }
+            if (size < headerSize || offset + size > to) {
+                return null;
+            }
+            if (type.equals(fourCc(buffer, offset + 4))) {
+                return new int[] {offset + headerSize, (int) (offset + size)};
+            }
+            offset += (int) size;
+        }
+        return null;
+    }
+
+    private static String fourCc(ByteBuffer buffer, int offset) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static long uint32(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+}
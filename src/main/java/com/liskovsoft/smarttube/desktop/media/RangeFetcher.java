@@ -0,0 +1,83 @@
+package com.liskovsoft.smarttube.desktop.media;
+
+import com.liskovsoft.smarttube.desktop.service.HttpTransport;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Fetches byte ranges of media streams over the shared HTTP transport
+ */
+public class RangeFetcher {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final OkHttpClient client;
+
+    public RangeFetcher() {
+        this(HttpTransport.getInstance().client());
+    }
+
+    public RangeFetcher(OkHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Bytes {@code start} to {@code end}, both inclusive
+     */
+    public byte[] fetch(String url, long start, long end) throws IOException {
+        try (Response response = execute(url, start, end)) {
+            return response.body().bytes();
+        }
+    }
+
+    /**
+     * Stream bytes {@code start} to {@code end}, both inclusive, into {@code out}
+     */
+    public void copy(String url, long start, long end, OutputStream out) throws IOException {
+        try (Response response = execute(url, start, end); InputStream in = response.body().byteStream()) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Total size of the resource, from the Content-Range of a one byte request
+     */
+    public long fetchLength(String url) throws IOException {
+        try (Response response = execute(url, 0, 0)) {
+            String contentRange = response.header("Content-Range");
+            int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+            if (slash < 0 || contentRange.endsWith("*")) {
+                throw new IOException("Unknown content length");
+            }
+            try {
+                return Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Range: " + contentRange, e);
+            }
+        }
+    }
+
+    private Response execute(String url, long start, long end) throws IOException {
+        Request request = new Request.Builder()
+            .url(url)
+            .header("Range", "bytes=" + start + "-" + end)
+            .build();
+        Response response = client.newCall(request).execute();
+        ResponseBody body = response.body();
+        if (response.code() != 206 || body == null) {
+            response.close();
+            throw new IOException("Range request failed: HTTP " + response.code());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,165 @@
+package com.liskovsoft.smarttube.desktop.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Byte and time layout of a fragmented MP4 stream, read from its segment index (sidx) box.
+ * <p>
+ * YouTube's DASH streams are single files with one sidx box listing every fragment's size and duration.
+ * This turns that into absolute byte ranges and start times, so a fragment can be fetched on its own and
+ * a playback position can be mapped to a byte offset.
+ */
+public class SegmentIndex {
+
+    private final long initStart;
+    private final long initEnd;
+    private final List<Segment> segments;
+    private final double[] startTimes;
+    private final double durationSeconds;
+
+    private SegmentIndex(long initStart, long initEnd, List<Segment> segments) {
+        this.initStart = initStart;
+        this.initEnd = initEnd;
+        this.segments = Collections.unmodifiableList(segments);
+        this.startTimes = new double[segments.size()];
+        double time = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            startTimes[i] = time;
+            time += segments.get(i).getDurationSeconds();
+        }
+        this.durationSeconds = time;
+    }
+
+    /**
+     * Parse a sidx box.
+     *
+     * @param sidx      the raw box, starting with its size field
+     * @param indexEnd  offset of the last byte of the box in the stream; fragment offsets are relative to it
+     */
+    public static SegmentIndex parse(long initStart, long initEnd, byte[] sidx, long indexEnd) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(sidx);
+        try {
+            buffer.getInt();
+            int type = buffer.getInt();
+            if (type != 0x73696478) { // "sidx"
+                throw new IOException("Not a sidx box");
+            }
+            int version = buffer.get() & 0xFF;
+            buffer.position(buffer.position() + 3); // flags
+            buffer.getInt(); // reference id
+            long timescale = buffer.getInt() & 0xFFFFFFFFL;
+            long firstOffset;
+            if (version == 0) {
+                buffer.getInt(); // earliest presentation time
+                firstOffset = buffer.getInt() & 0xFFFFFFFFL;
+            } else {
+                buffer.getLong();
+                firstOffset = buffer.getLong();
+            }
+            buffer.getShort(); // reserved
+            int referenceCount = buffer.getShort() & 0xFFFF;
+            if (timescale == 0) {
+                throw new IOException("Invalid sidx timescale");
+            }
+
+            List<Segment> segments = new ArrayList<>(referenceCount);
+            long offset = indexEnd + 1 + firstOffset;
+            for (int i = 0; i < referenceCount; i++) {
+                long reference = buffer.getInt() & 0xFFFFFFFFL;
+                long duration = buffer.getInt() & 0xFFFFFFFFL;
+                buffer.getInt(); // SAP flags
+                if ((reference & 0x80000000L) != 0) {
+                    throw new IOException("Hierarchical sidx is not supported");
+                }
+                long size = reference & 0x7FFFFFFFL;
+                segments.add(new Segment(offset, offset + size - 1, duration / (double) timescale));
+                offset += size;
+            }
+            return new SegmentIndex(initStart, initEnd, segments);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed sidx box", e);
+        }
+    }
+
+    public long getInitStart() {
+        return initStart;
+    }
+
+    public long getInitEnd() {
+        return initEnd;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public double getMaxSegmentDuration() {
+        double max = 0;
+        for (Segment segment : segments) {
+            max = Math.max(max, segment.getDurationSeconds());
+        }
+        return max;
+    }
+
+    /**
+     * Index of the segment that contains {@code seconds}, clamped to the valid range
+     */
+    public int segmentAt(double seconds) {
+        int low = 0;
+        int high = startTimes.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (startTimes[mid] <= seconds) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(low, 0);
+    }
+
+    public double getStartTime(int segment) {
+        return startTimes[segment];
+    }
+
+    /**
+     * One fragment (moof + mdat) of the stream
+     */
+    public static final class Segment {
+        private final long start;
+        private final long end;
+        private final double durationSeconds;
+
+        Segment(long start, long end, double durationSeconds) {
+            this.start = start;
+            this.end = end;
+            this.durationSeconds = durationSeconds;
+        }
+
+        /** First byte, inclusive */
+        public long getStart() {
+            return start;
+        }
+
+        /** Last byte, inclusive */
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start + 1;
+        }
+
+        public double getDurationSeconds() {
+            return durationSeconds;
+        }
+    }
+}
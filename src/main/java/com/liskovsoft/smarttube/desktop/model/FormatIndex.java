@@ -0,0 +1,264 @@
+package com.liskovsoft.smarttube.desktop.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Precomputed, sorted view of a video's formats.
+ * <p>
+ * Formats are split into combined, video-only and audio-only tracks. Each group is sorted once by
+ * height and once by bitrate, so "best format at or under height H" or "under bitrate B" is a binary
+ * search over primitive keys instead of string matching on quality labels.
+ * <p>
+ * Progressive streams often report no bitrate. Those are indexed by their size over the video's
+ * duration, or failing that by a typical bitrate for their height, so the bitrate order still follows
+ * quality and a bandwidth budget can select a lower format.
+ */
+public class FormatIndex {
+
+    public enum Kind { COMBINED, VIDEO_ONLY, AUDIO_ONLY }
+
+    private static final Comparator<VideoFormat> BY_HEIGHT = Comparator
+        .comparingInt(VideoFormat::getHeight)
+        .thenComparingInt(VideoFormat::getFps)
+        .thenComparingLong(VideoFormat::getBitrate);
+
+    /** Typical H.264 bitrates by height, for formats that report neither bitrate nor size */
+    private static final int[] LADDER_HEIGHTS = {144, 240, 360, 480, 720, 1080, 1440, 2160};
+    private static final long[] LADDER_BITRATES = {100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 20_000_000};
+    private static final long TYPICAL_AUDIO_BITRATE = 128_000;
+
+    private final VideoFormat[][] byHeight = new VideoFormat[Kind.values().length][];
+    private final int[][] heights = new int[Kind.values().length][];
+    private final VideoFormat[][] byBitrate = new VideoFormat[Kind.values().length][];
+    private final long[][] bitrates = new long[Kind.values().length][];
+
+    public FormatIndex(List<VideoFormat> formats) {
+        this(formats, 0);
+    }
+
+    /**
+     * @param durationSeconds length of the video, used to derive missing bitrates; 0 if unknown
+     */
+    public FormatIndex(List<VideoFormat> formats, double durationSeconds) {
+        List<List<VideoFormat>> groups = new ArrayList<>();
+        for (int i = 0; i < Kind.values().length; i++) {
+            groups.add(new ArrayList<>());
+        }
+        if (formats != null) {
+            for (VideoFormat format : formats) {
+                if (format.getUrl() == null) {
+                    continue;
+                }
+                Kind kind = kindOf(format);
+                if (kind != null) {
+                    groups.get(kind.ordinal()).add(format);
+                }
+            }
+        }
+
+        for (Kind kind : Kind.values()) {
+            VideoFormat[] sorted = groups.get(kind.ordinal()).toArray(new VideoFormat[0]);
+
+            Arrays.sort(sorted, BY_HEIGHT);
+            byHeight[kind.ordinal()] = sorted;
+            heights[kind.ordinal()] = Arrays.stream(sorted).mapToInt(VideoFormat::getHeight).toArray();
+
+            Comparator<VideoFormat> byIndexedBitrate = Comparator
+                .<VideoFormat>comparingLong(format -> indexedBitrate(format, durationSeconds))
+                .thenComparingInt(VideoFormat::getHeight);
+            VideoFormat[] sortedByBitrate = sorted.clone();
+            Arrays.sort(sortedByBitrate, byIndexedBitrate);
+            byBitrate[kind.ordinal()] = sortedByBitrate;
+            bitrates[kind.ordinal()] = Arrays.stream(sortedByBitrate).mapToLong(format -> indexedBitrate(format, durationSeconds)).toArray();
+        }
+    }
+
+    /**
+     * Reported bitrate, or the average implied by the content length over {@code durationSeconds}, or 0
+     * if neither is known
+     */
+    public static long measuredBitrate(VideoFormat format, double durationSeconds) {
+        if (format.getBitrate() > 0) {
+            return format.getBitrate();
+        }
+        if (format.getContentLength() > 0 && durationSeconds > 0) {
+            return (long) (format.getContentLength() * 8 / durationSeconds);
+        }
+        return 0;
+    }
+
+    private static long indexedBitrate(VideoFormat format, double durationSeconds) {
+        long bitrate = measuredBitrate(format, durationSeconds);
+        if (bitrate > 0) {
+            return bitrate;
+        }
+        if (format.getHeight() <= 0) {
+            return format.isAudioOnly() ? TYPICAL_AUDIO_BITRATE : 0;
+        }
+        for (int i = 0; i < LADDER_HEIGHTS.length; i++) {
+            if (format.getHeight() <= LADDER_HEIGHTS[i]) {
+                return LADDER_BITRATES[i];
+            }
+        }
+        return LADDER_BITRATES[LADDER_BITRATES.length - 1];
+    }
+
+    private static Kind kindOf(VideoFormat format) {
+        if (format.isCombined()) {
+            return Kind.COMBINED;
+        } else if (format.isVideoOnly()) {
+            return Kind.VIDEO_ONLY;
+        } else if (format.isAudioOnly()) {
+            return Kind.AUDIO_ONLY;
+        }
+        return null;
+    }
+
+    /**
+     * Highest format whose height is at or under {@code maxHeight}. Among formats of that height, one whose
+     * mime type starts with {@code preferredMimeType} wins if there is one; otherwise the highest bitrate.
+     * Falls back to the lowest format when everything is taller than requested.
+     *
+     * @param preferredMimeType e.g. "video/mp4", or null for no preference
+     */
+    public VideoFormat bestAtOrUnderHeight(Kind kind, int maxHeight, String preferredMimeType) {
+        VideoFormat[] sorted = byHeight[kind.ordinal()];
+        if (sorted.length == 0) {
+            return null;
+        }
+        int index = upperBound(heights[kind.ordinal()], maxHeight) - 1;
+        if (index < 0) {
+            return sorted[0];
+        }
+        return preferMimeType(sorted, index, preferredMimeType);
+    }
+
+    /**
+     * Highest bitrate format at or under {@code maxBitrate} bits per second, or the lowest bitrate one if
+     * every format exceeds it. Formats without a reported bitrate are compared by their derived one.
+     */
+    public VideoFormat bestAtOrUnderBitrate(Kind kind, long maxBitrate) {
+        return bestAtOrUnderBitrate(kind, maxBitrate, null);
+    }
+
+    /**
+     * Like {@link #bestAtOrUnderBitrate(Kind, long)}, but takes the highest bitrate format with a mime type
+     * starting with {@code preferredMimeType} within the budget if there is one
+     */
+    public VideoFormat bestAtOrUnderBitrate(Kind kind, long maxBitrate, String preferredMimeType) {
+        VideoFormat[] sorted = byBitrate[kind.ordinal()];
+        if (sorted.length == 0) {
+            return null;
+        }
+        int index = Math.max(upperBound(bitrates[kind.ordinal()], maxBitrate) - 1, 0);
+        if (preferredMimeType != null) {
+            for (int i = index; i >= 0; i--) {
+                String mimeType = sorted[i].getMimeType();
+                if (mimeType != null && mimeType.startsWith(preferredMimeType)) {
+                    return sorted[i];
+                }
+            }
+        }
+        return sorted[index];
+    }
+
+    public VideoFormat highest(Kind kind) {
+        VideoFormat[] sorted = byHeight[kind.ordinal()];
+        return sorted.length > 0 ? sorted[sorted.length - 1] : null;
+    }
+
+    public VideoFormat lowest(Kind kind) {
+        VideoFormat[] sorted = byHeight[kind.ordinal()];
+        return sorted.length > 0 ? sorted[0] : null;
+    }
+
+    /**
+     * Formats of one kind, ordered by height, then fps, then bitrate
+     */
+    public List<VideoFormat> get(Kind kind) {
+        return Collections.unmodifiableList(Arrays.asList(byHeight[kind.ordinal()]));
+    }
+
+    public boolean isEmpty() {
+        for (VideoFormat[] sorted : byHeight) {
+            if (sorted.length > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Height ceiling for a quality selector entry such as "720p"; "Auto" and unknown values mean no limit
+     */
+    public static int parseMaxHeight(String quality) {
+        if (quality == null) {
+            return Integer.MAX_VALUE;
+        }
+        int height = parseHeight(quality);
+        return height > 0 ? height : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Leading number of a quality label such as "720p60", or 0 if there is none
+     */
+    public static int parseHeight(String qualityLabel) {
+        if (qualityLabel == null) {
+            return 0;
+        }
+        int height = 0;
+        for (int i = 0; i < qualityLabel.length(); i++) {
+            char c = qualityLabel.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            height = height * 10 + (c - '0');
+        }
+        return height;
+    }
+
+    private static VideoFormat preferMimeType(VideoFormat[] sorted, int index, String preferredMimeType) {
+        if (preferredMimeType != null) {
+            int height = sorted[index].getHeight();
+            for (int i = index; i >= 0 && sorted[i].getHeight() == height; i--) {
+                String mimeType = sorted[i].getMimeType();
+                if (mimeType != null && mimeType.startsWith(preferredMimeType)) {
+                    return sorted[i];
+                }
+            }
+        }
+        return sorted[index];
+    }
+
+    private static int upperBound(int[] keys, int value) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(long[] keys, long value) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
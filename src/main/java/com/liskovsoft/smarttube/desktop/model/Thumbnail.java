@@ -0,0 +1,49 @@
+package com.liskovsoft.smarttube.desktop.model;
+
+/**
+ * One size variant of a video thumbnail. Width and height are 0 when the source did not report them.
+ */
+public class Thumbnail {
+
+    private final String url;
+    private final int width;
+    private final int height;
+
+    public Thumbnail(String url, int width, int height) {
+        this.url = url;
+        this.width = Math.max(width, 0);
+        this.height = Math.max(height, 0);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * Whether this variant has at least {@code minWidth} x {@code minHeight} pixels
+     */
+    public boolean covers(double minWidth, double minHeight) {
+        return hasSize() && width >= minWidth && height >= minHeight;
+    }
+
+    public long getPixelCount() {
+        return (long) width * height;
+    }
+
+    @Override
+    public String toString() {
+        return "Thumbnail{" + width + "x" + height + ", url='" + url + "'}";
+    }
+}
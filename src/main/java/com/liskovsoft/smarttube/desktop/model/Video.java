@@ -14,6 +14,7 @@ public class Video {    private String videoId;
     private String channelId;
     private String channelUrl;
     private String thumbnailUrl;
+    private List<Thumbnail> thumbnails;
     private Duration duration;
     private String durationText;
     private long viewCount;
@@ -21,6 +22,7 @@ public class Video {    private String videoId;
     private String uploadDate;
     private String streamUrl;
     private List<VideoFormat> formats;
+    private FormatIndex formatIndex;
     private boolean isLive;
     private String category;
     private List<String> tags;
@@ -81,12 +83,48 @@ public class Video {    private String videoId;
         this.thumbnailUrl = thumbnailUrl;
     }
     
+    public List<Thumbnail> getThumbnails() {
+        return thumbnails;
+    }
+    
+    public void setThumbnails(List<Thumbnail> thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+    
+    /**
+     * URL of the smallest thumbnail variant of at least {@code minWidth} x {@code minHeight} pixels, or the
+     * largest one if none is that big. Falls back to {@link #getThumbnailUrl()} when no variant reports
+     * its size.
+     */
+    public String getThumbnailUrl(double minWidth, double minHeight) {
+        Thumbnail best = null;
+        if (thumbnails != null) {
+            for (Thumbnail thumbnail : thumbnails) {
+                if (!thumbnail.hasSize()) {
+                    continue;
+                }
+                if (best == null) {
+                    best = thumbnail;
+                } else if (thumbnail.covers(minWidth, minHeight)) {
+                    if (!best.covers(minWidth, minHeight) || thumbnail.getPixelCount() < best.getPixelCount()) {
+                        best = thumbnail;
+                    }
+                } else if (!best.covers(minWidth, minHeight) && thumbnail.getPixelCount() > best.getPixelCount()) {
+                    best = thumbnail;
+                }
+            }
+        }
+        return best != null ? best.getUrl() : thumbnailUrl;
+    }
+    
     public Duration getDuration() {
         return duration;
     }
     
     public void setDuration(Duration duration) {
         this.duration = duration;
+        // Bitrates of formats that lack one are derived from the duration
+        this.formatIndex = null;
     }
     
     public String getDurationText() {
@@ -119,6 +157,7 @@ public class Video {    private String videoId;
     
     public void setFormats(List<VideoFormat> formats) {
         this.formats = formats;
+        this.formatIndex = null;
     }
     
     public boolean isLive() {
@@ -210,23 +249,29 @@ public class Video {    private String videoId;
         }
     }
     
+    /**
+     * Formats sorted for quality selection, built on first use
+     */
+    public FormatIndex getFormatIndex() {
+        FormatIndex index = formatIndex;
+        if (index == null) {
+            index = new FormatIndex(formats, duration != null ? duration.getSeconds() : 0);
+            formatIndex = index;
+        }
+        return index;
+    }
+    
+    /**
+     * Best combined format at or under the preferred quality ("720p", "Auto", ...), falling back to any format
+     */
     public VideoFormat getBestFormat(String preferredQuality) {
         if (formats == null || formats.isEmpty()) {
             return null;
         }
         
-        // Try to find exact quality match
-        for (VideoFormat format : formats) {
-            if (format.getQualityLabel().equals(preferredQuality)) {
-                return format;
-            }
-        }
-        
-        // If no exact match, return highest quality
-        return formats.stream()
-                .filter(f -> f.hasVideo() && f.hasAudio())
-                .max((f1, f2) -> Integer.compare(f1.getHeight(), f2.getHeight()))
-                .orElse(formats.get(0));
+        VideoFormat format = getFormatIndex().bestAtOrUnderHeight(FormatIndex.Kind.COMBINED,
+                FormatIndex.parseMaxHeight(preferredQuality), "video/mp4");
+        return format != null ? format : formats.get(0);
     }
     
     @Override
@@ -6,6 +6,7 @@ package com.liskovsoft.smarttube.desktop.model;
 public class VideoFormat {
     
     private String url;
+    private int itag;
     private String mimeType;
     private String qualityLabel;
     private String codec;
@@ -19,6 +20,10 @@ public class VideoFormat {
     private String audioCodec;
     private int audioBitrate;
     private int audioSampleRate;
+    private long initStart = -1;
+    private long initEnd = -1;
+    private long indexStart = -1;
+    private long indexEnd = -1;
     
     public VideoFormat() {}
     
@@ -36,6 +41,14 @@ public class VideoFormat {
         this.url = url;
     }
     
+    public int getItag() {
+        return itag;
+    }
+    
+    public void setItag(int itag) {
+        this.itag = itag;
+    }
+    
     public String getMimeType() {
         return mimeType;
     }
@@ -140,6 +153,48 @@ public class VideoFormat {
         this.audioSampleRate = audioSampleRate;
     }
     
+    /**
+     * Byte range of the initialization segment (ftyp/moov) of a DASH stream, or -1 if unknown
+     */
+    public long getInitStart() {
+        return initStart;
+    }
+    
+    public void setInitStart(long initStart) {
+        this.initStart = initStart;
+    }
+    
+    public long getInitEnd() {
+        return initEnd;
+    }
+    
+    public void setInitEnd(long initEnd) {
+        this.initEnd = initEnd;
+    }
+    
+    /**
+     * Byte range of the segment index (sidx) of a DASH stream, or -1 if unknown
+     */
+    public long getIndexStart() {
+        return indexStart;
+    }
+    
+    public void setIndexStart(long indexStart) {
+        this.indexStart = indexStart;
+    }
+    
+    public long getIndexEnd() {
+        return indexEnd;
+    }
+    
+    public void setIndexEnd(long indexEnd) {
+        this.indexEnd = indexEnd;
+    }
+    
+    public boolean hasSegmentIndex() {
+        return initEnd > 0 && indexStart > initEnd && indexEnd > indexStart;
+    }
+    
     // Additional methods needed by YouTubeService
     public String getQuality() {
         return qualityLabel;
@@ -0,0 +1,197 @@
+package com.liskovsoft.smarttube.desktop.player;
+
+import com.liskovsoft.smarttube.desktop.media.MediaKey;
+import com.liskovsoft.smarttube.desktop.model.FormatIndex;
+import com.liskovsoft.smarttube.desktop.model.Video;
+import com.liskovsoft.smarttube.desktop.model.VideoFormat;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * "Auto" quality: moves playback up or down the available formats as measured throughput changes.
+ * <p>
+ * Once a second the controller turns buffer progress into a throughput sample for the player's
+ * {@link BandwidthEstimator}, unless the media proxy already reports real byte counts, and compares the
+ * estimate against the formats' bitrates. It steps down when playback stalls or the buffer runs low,
+ * but only once the current source has been playing for {@link #STARTUP_GRACE_NANOS}, since a source
+ * that is still being built or prerolling always looks starved, and not more often than every
+ * {@link #MIN_DOWNSWITCH_INTERVAL_NANOS}. It steps up only with a healthy buffer and not more often than
+ * every {@link #MIN_UPSWITCH_INTERVAL_NANOS}. Nothing is decided while a switch is pending. Switches go through
+ * {@link VideoPlayer#switchSource(String)}, so the picture does not restart. Runs on the FX thread.
+ */
+public class AdaptiveQualityController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveQualityController.class);
+
+    /** Only plan for this share of the estimated bandwidth */
+    private static final double SAFETY_FACTOR = 0.75;
+
+    /** Seconds buffered ahead required before stepping up */
+    private static final double UPSWITCH_BUFFER = 15.0;
+
+    /** Seconds buffered ahead below which we step down */
+    private static final double PANIC_BUFFER = 4.0;
+
+    private static final long MIN_UPSWITCH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long MIN_DOWNSWITCH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(8);
+
+    /** How long the current source must have been playing before its buffer level counts */
+    private static final long STARTUP_GRACE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /** Buffer progress is batched into samples of at least this size */
+    private static final long SAMPLE_BYTES = 64 * 1024;
+
+    private final VideoPlayer player;
+    private final Timeline timeline;
+
+    private String videoId;
+    private FormatIndex formats;
+    private VideoFormat current;
+    private double durationSeconds;
+    private Consumer<VideoFormat> onSwitch;
+
+    private double lastBufferProgress = -1;
+    private long lastSampleNanos;
+    private long pendingBytes;
+    private long pendingNanos;
+    private long lastSwitchNanos;
+    /** When the current source was first seen playing, 0 until then */
+    private long playingSinceNanos;
+
+    public AdaptiveQualityController(VideoPlayer player) {
+        this.player = player;
+        this.timeline = new Timeline(new KeyFrame(Duration.seconds(1), e -> tick()));
+        this.timeline.setCycleCount(Animation.INDEFINITE);
+    }
+
+    /**
+     * Format to start a video with, given what the link has delivered so far
+     */
+    public VideoFormat selectInitial(Video video) {
+        long budget = (long) (player.getBandwidthEstimator().getEstimateBitsPerSecond() * SAFETY_FACTOR);
+        return video.getFormatIndex().bestAtOrUnderBitrate(FormatIndex.Kind.COMBINED, budget);
+    }
+
+    /**
+     * Start adapting the playback of {@code video}, which is currently playing {@code initial}
+     */
+    public void start(Video video, VideoFormat initial) {
+        videoId = video.getId();
+        formats = video.getFormatIndex();
+        current = initial;
+        durationSeconds = video.getDuration() != null ? video.getDuration().getSeconds() : 0;
+        lastSwitchNanos = System.nanoTime();
+        playingSinceNanos = 0;
+        resetSampling();
+        timeline.playFromStart();
+    }
+
+    public void stop() {
+        timeline.stop();
+        formats = null;
+        current = null;
+    }
+
+    /**
+     * Called on the FX thread after each quality switch
+     */
+    public void setOnSwitch(Consumer<VideoFormat> onSwitch) {
+        this.onSwitch = onSwitch;
+    }
+
+    public VideoFormat getCurrentFormat() {
+        return current;
+    }
+
+    private void tick() {
+        if (formats == null || current == null) {
+            return;
+        }
+        sampleThroughput();
+        if (player.isSwitchPending()) {
+            // The old source still plays; its buffer says nothing about the new one
+            return;
+        }
+        long now = System.nanoTime();
+        if (playingSinceNanos == 0 && player.isPlaying()) {
+            playingSinceNanos = now;
+        }
+        boolean settled = playingSinceNanos != 0 && now - playingSinceNanos >= STARTUP_GRACE_NANOS;
+
+        List<VideoFormat> ladder = formats.get(FormatIndex.Kind.COMBINED);
+        int currentIndex = ladder.indexOf(current);
+        if (currentIndex < 0 || ladder.size() < 2) {
+            return;
+        }
+
+        long budget = (long) (player.getBandwidthEstimator().getEstimateBitsPerSecond() * SAFETY_FACTOR);
+        int targetIndex = ladder.indexOf(formats.bestAtOrUnderBitrate(FormatIndex.Kind.COMBINED, budget));
+
+        double bufferedAhead = player.getBufferedAheadTime();
+        boolean fullyBuffered = durationSeconds > 0 && player.getBufferProgressTime() >= durationSeconds - 1;
+        boolean starving = settled && (player.isStalled() || (!fullyBuffered && bufferedAhead < PANIC_BUFFER));
+
+        if (starving && currentIndex > 0) {
+            if (now - lastSwitchNanos >= MIN_DOWNSWITCH_INTERVAL_NANOS) {
+                // The estimate may lag behind a sudden drop; always give up at least one step
+                switchTo(ladder.get(Math.min(targetIndex, currentIndex - 1)));
+            }
+        } else if (settled && !starving && targetIndex > currentIndex && bufferedAhead >= UPSWITCH_BUFFER
+                && now - lastSwitchNanos >= MIN_UPSWITCH_INTERVAL_NANOS) {
+            switchTo(ladder.get(targetIndex));
+        }
+    }
+
+    private void sampleThroughput() {
+        if (player.isThroughputMeasured()) {
+            // The media proxy reports real byte counts to the estimator
+            return;
+        }
+        long now = System.nanoTime();
+        double progress = player.getBufferProgressTime();
+        if (lastBufferProgress < 0 || progress < lastBufferProgress) {
+            lastBufferProgress = progress;
+            lastSampleNanos = now;
+            return;
+        }
+
+        long bitrate = FormatIndex.measuredBitrate(current, durationSeconds);
+        if (bitrate > 0 && (durationSeconds <= 0 || lastBufferProgress < durationSeconds - 1)) {
+            pendingBytes += (long) ((progress - lastBufferProgress) * bitrate / 8);
+            pendingNanos += now - lastSampleNanos;
+            if (pendingBytes >= SAMPLE_BYTES) {
+                player.getBandwidthEstimator().addSample(pendingBytes, pendingNanos);
+                pendingBytes = 0;
+                pendingNanos = 0;
+            }
+        }
+        lastBufferProgress = progress;
+        lastSampleNanos = now;
+    }
+
+    private void switchTo(VideoFormat format) {
+        logger.info("Adaptive quality: {} -> {}", current.getQuality(), format.getQuality());
+        current = format;
+        lastSwitchNanos = System.nanoTime();
+        playingSinceNanos = 0;
+        resetSampling();
+        player.switchSource(format.getUrl(), MediaKey.of(videoId, format));
+        if (onSwitch != null) {
+            onSwitch.accept(format);
+        }
+    }
+
+    private void resetSampling() {
+        lastBufferProgress = -1;
+        pendingBytes = 0;
+        pendingNanos = 0;
+    }
+}
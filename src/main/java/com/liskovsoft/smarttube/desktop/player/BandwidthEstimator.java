@@ -0,0 +1,90 @@
+package com.liskovsoft.smarttube.desktop.player;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates download throughput of media bytes.
+ * <p>
+ * Keeps a fast and a slow exponentially weighted moving average, each weighted by sample duration,
+ * and reports the lower of the two: drops in throughput are picked up quickly, while a short burst
+ * is not trusted until it has been sustained.
+ */
+public class BandwidthEstimator {
+
+    /** Half-lives in seconds of downloaded time */
+    private static final double FAST_HALF_LIFE = 2.0;
+    private static final double SLOW_HALF_LIFE = 8.0;
+
+    /** Samples smaller than this are dominated by latency rather than bandwidth */
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+
+    /** Total sampled time needed before the estimate is trusted */
+    private static final double MIN_TOTAL_SECONDS = 1.0;
+
+    private final Ewma fast = new Ewma(FAST_HALF_LIFE);
+    private final Ewma slow = new Ewma(SLOW_HALF_LIFE);
+    private final long defaultBitsPerSecond;
+
+    public BandwidthEstimator(long defaultBitsPerSecond) {
+        this.defaultBitsPerSecond = defaultBitsPerSecond;
+    }
+
+    /**
+     * Record that {@code bytes} of media arrived over {@code durationNanos}
+     */
+    public synchronized void addSample(long bytes, long durationNanos) {
+        if (bytes < MIN_SAMPLE_BYTES || durationNanos <= 0) {
+            return;
+        }
+        double seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        double bitsPerSecond = bytes * 8 / seconds;
+        fast.add(seconds, bitsPerSecond);
+        slow.add(seconds, bitsPerSecond);
+    }
+
+    /**
+     * Current estimate in bits per second, or the default until enough has been sampled
+     */
+    public synchronized long getEstimateBitsPerSecond() {
+        if (!hasEstimate()) {
+            return defaultBitsPerSecond;
+        }
+        return (long) Math.min(fast.getEstimate(), slow.getEstimate());
+    }
+
+    public synchronized boolean hasEstimate() {
+        return slow.totalWeight >= MIN_TOTAL_SECONDS;
+    }
+
+    public synchronized void reset() {
+        fast.reset();
+        slow.reset();
+    }
+
+    private static final class Ewma {
+        private final double alpha;
+        private double estimate;
+        private double totalWeight;
+
+        Ewma(double halfLife) {
+            this.alpha = Math.exp(Math.log(0.5) / halfLife);
+        }
+
+        void add(double weight, double value) {
+            double adjustedAlpha = Math.pow(alpha, weight);
+            estimate = value * (1 - adjustedAlpha) + adjustedAlpha * estimate;
+            totalWeight += weight;
+        }
+
+        double getEstimate() {
+            // Correct for the zero the average starts from
+            double zeroFactor = 1 - Math.pow(alpha, totalWeight);
+            return zeroFactor > 0 ? estimate / zeroFactor : 0;
+        }
+
+        void reset() {
+            estimate = 0;
+            totalWeight = 0;
+        }
+    }
+}
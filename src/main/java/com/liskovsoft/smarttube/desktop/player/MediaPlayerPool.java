@@ -0,0 +1,227 @@
+package com.liskovsoft.smarttube.desktop.player;
+
+import com.liskovsoft.smarttube.desktop.media.HlsGateway;
+import com.liskovsoft.smarttube.desktop.media.MediaProxy;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the native media players of a {@link VideoPlayer}.
+ * <p>
+ * A JavaFX MediaPlayer is bound to one Media for its whole life, so players cannot be recycled between
+ * videos. Instead the pool keeps players for likely-next media prepared ahead of time. Every player is
+ * constructed on a background thread, and retired players are stopped and disposed on that same thread,
+ * so neither blocks the FX thread. {@link #MAX_PLAYERS} bounds the live players, counting those still
+ * waiting to be disposed: speculative preparation is refused beyond it, while players that are needed now
+ * evict prepared ones first but are never refused, so for them the cap is soft. Because construction and
+ * disposal share one thread, players released before an acquire are gone by the time it builds its own.
+ * Apart from {@link #release(Lease)}, methods must be called on the FX thread.
+ */
+public class MediaPlayerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaPlayerPool.class);
+
+    /** Current, pending quality switch, one prepared and one being disposed */
+    private static final int MAX_PLAYERS = 4;
+    private static final int MAX_PREPARED = 1;
+
+    /**
+     * A player together with the media it plays and the local proxy URL it reads from, if any
+     */
+    public static final class Lease {
+        private final String sourceUrl;
+        private final String proxyUrl;
+        private final Media media;
+        private final MediaPlayer player;
+
+        Lease(String sourceUrl, String proxyUrl, Media media, MediaPlayer player) {
+            this.sourceUrl = sourceUrl;
+            this.proxyUrl = proxyUrl;
+            this.media = media;
+            this.player = player;
+        }
+
+        public String getSourceUrl() {
+            return sourceUrl;
+        }
+
+        /** Null when the media is played directly */
+        public String getProxyUrl() {
+            return proxyUrl;
+        }
+
+        public Media getMedia() {
+            return media;
+        }
+
+        public MediaPlayer getPlayer() {
+            return player;
+        }
+    }
+
+    private final ExecutorService lifecycle = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "media-player-lifecycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicInteger liveCount = new AtomicInteger();
+    /** Prepared players by source URL, oldest first */
+    private final LinkedHashMap<String, CompletableFuture<Lease>> prepared = new LinkedHashMap<>();
+
+    /**
+     * Construct a player for immediate use in the background. The returned future completes on the
+     * background thread; the caller owns the lease once it does.
+     *
+     * @param proxyUrl local proxy URL the player reads from, released with the player; null if none
+     */
+    public CompletableFuture<Lease> acquire(String sourceUrl, String playbackUrl, String proxyUrl) {
+        while (liveCount.get() >= MAX_PLAYERS && evictEldestPrepared()) {
+            // Make room for a player that is needed now
+        }
+        liveCount.incrementAndGet();
+        CompletableFuture<Lease> future = CompletableFuture.supplyAsync(() -> create(sourceUrl, playbackUrl, proxyUrl), lifecycle);
+        future.whenComplete((lease, error) -> {
+            if (error != null) {
+                liveCount.decrementAndGet();
+                releaseProxy(proxyUrl);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Construct a paused player for {@code sourceUrl} in the background so a later {@link #take(String)}
+     * can hand it out ready. Replaces the oldest prepared player when full; skipped when the pool is at
+     * its cap.
+     *
+     * @return whether preparation was started
+     */
+    public boolean prepare(String sourceUrl, String playbackUrl, String proxyUrl) {
+        if (prepared.containsKey(sourceUrl)) {
+            releaseProxy(proxyUrl);
+            return true;
+        }
+        while (prepared.size() >= MAX_PREPARED && evictEldestPrepared()) {
+            // Newer guesses about what plays next win
+        }
+        if (liveCount.get() >= MAX_PLAYERS) {
+            logger.debug("Player pool full, not preparing {}", sourceUrl);
+            releaseProxy(proxyUrl);
+            return false;
+        }
+
+        liveCount.incrementAndGet();
+        CompletableFuture<Lease> future = CompletableFuture.supplyAsync(() -> create(sourceUrl, playbackUrl, proxyUrl), lifecycle);
+        prepared.put(sourceUrl, future);
+        future.whenComplete((lease, error) -> {
+            if (error != null) {
+                logger.warn("Failed to prepare player: {}", error.getMessage());
+                liveCount.decrementAndGet();
+                releaseProxy(proxyUrl);
+                return;
+            }
+            lease.player.setAutoPlay(false);
+            // Replaced by the real handlers once the player is taken
+            lease.player.setOnError(() -> {
+                logger.warn("Prepared player failed: {}", lease.player.getError() != null ? lease.player.getError().getMessage() : "unknown");
+                if (prepared.get(sourceUrl) == future) {
+                    prepared.remove(sourceUrl);
+                    release(lease);
+                }
+            });
+        });
+        return true;
+    }
+
+    public boolean isPrepared(String sourceUrl) {
+        return prepared.containsKey(sourceUrl);
+    }
+
+    /**
+     * The prepared player for {@code sourceUrl}, or null if there is none or it is still being constructed.
+     * Either way the pool no longer holds it as prepared.
+     */
+    public Lease take(String sourceUrl) {
+        CompletableFuture<Lease> future = prepared.remove(sourceUrl);
+        if (future == null) {
+            return null;
+        }
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+            return future.join();
+        }
+        // Constructing it took longer than the user; dispose of it when it arrives
+        future.thenAccept(this::release);
+        return null;
+    }
+
+    /**
+     * Drop all prepared players
+     */
+    public void cancelPrepared() {
+        while (evictEldestPrepared()) {
+            // Drain
+        }
+    }
+
+    /**
+     * Stop and dispose of a player in the background, then release its proxy stream or gateway session.
+     * May be called from any thread; null is ignored.
+     */
+    public void release(Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        lifecycle.execute(() -> {
+            try {
+                lease.player.stop();
+                lease.player.dispose();
+            } catch (RuntimeException e) {
+                logger.warn("Error disposing media player", e);
+            } finally {
+                liveCount.decrementAndGet();
+                releaseProxy(lease.proxyUrl);
+                HlsGateway.unregisterIfStarted(lease.sourceUrl);
+            }
+        });
+    }
+
+    /**
+     * Players currently holding native resources, including prepared ones and those awaiting disposal
+     */
+    public int getLiveCount() {
+        return liveCount.get();
+    }
+
+    private boolean evictEldestPrepared() {
+        Iterator<Map.Entry<String, CompletableFuture<Lease>>> iterator = prepared.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        CompletableFuture<Lease> future = iterator.next().getValue();
+        iterator.remove();
+        future.thenAccept(this::release);
+        return true;
+    }
+
+    private static Lease create(String sourceUrl, String playbackUrl, String proxyUrl) {
+        Media media = new Media(playbackUrl);
+        return new Lease(sourceUrl, proxyUrl, media, new MediaPlayer(media));
+    }
+
+    private static void releaseProxy(String proxyUrl) {
+        if (proxyUrl != null) {
+            MediaProxy.getInstance().release(proxyUrl);
+        }
+    }
+}
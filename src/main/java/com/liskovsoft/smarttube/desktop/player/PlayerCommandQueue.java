@@ -0,0 +1,187 @@
+package com.liskovsoft.smarttube.desktop.player;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Batches player control calls onto the FX thread.
+ * <p>
+ * Commands are coalesced by {@link Type}: a newer command replaces a pending one of the same type, so
+ * dragging a slider leaves one volume change and holding a seek key leaves only the latest target.
+ * Pending commands are applied in the order of their latest submission, in one batch on the next
+ * animation pulse, so everything submitted within a frame is coalesced. The pulse timer runs only while
+ * commands are pending. While the queue is held, e.g. during the construction of the player the
+ * commands are meant for, they are kept until it is resumed. Depth and latency, from the oldest pending
+ * submission to its batch being applied, are recorded for diagnostics.
+ */
+public class PlayerCommandQueue {
+
+    public enum Type {
+        /** Play, pause and stop; only the last one matters */
+        TRANSPORT,
+        SEEK,
+        VOLUME,
+        RATE,
+        MUTE
+    }
+
+    /** Null when draining on the pulse */
+    private final Executor fxExecutor;
+    private final AnimationTimer pulse;
+
+    private final LinkedHashMap<Type, Runnable> pending = new LinkedHashMap<>();
+    private long oldestPendingNanos;
+    private boolean drainScheduled;
+    private boolean held;
+
+    private long submittedCount;
+    private long coalescedCount;
+    private long batchCount;
+    private int maxDepth;
+    private long lastLatencyNanos;
+    private long maxLatencyNanos;
+
+    public PlayerCommandQueue() {
+        this.fxExecutor = null;
+        this.pulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                // Stopped first, so commands submitted by the batch start it again for the next pulse
+                stop();
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Drain on {@code fxExecutor} instead of on the pulse, posting once per batch
+     */
+    public PlayerCommandQueue(Executor fxExecutor) {
+        this.fxExecutor = fxExecutor;
+        this.pulse = null;
+    }
+
+    /**
+     * Queue {@code command}, replacing any pending command of the same type. May be called from any thread.
+     */
+    public void submit(Type type, Runnable command) {
+        boolean schedule;
+        synchronized (this) {
+            submittedCount++;
+            if (pending.remove(type) != null) {
+                coalescedCount++;
+            }
+            if (pending.isEmpty()) {
+                oldestPendingNanos = System.nanoTime();
+            }
+            pending.put(type, command);
+            maxDepth = Math.max(maxDepth, pending.size());
+            schedule = !drainScheduled && !held;
+            drainScheduled |= schedule;
+        }
+        if (schedule) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Keep submitted commands pending until {@link #resume()}
+     */
+    public synchronized void hold() {
+        held = true;
+    }
+
+    /**
+     * Apply the commands kept while held, and later ones as usual
+     */
+    public void resume() {
+        boolean schedule;
+        synchronized (this) {
+            held = false;
+            schedule = !drainScheduled && !pending.isEmpty();
+            drainScheduled |= schedule;
+        }
+        if (schedule) {
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (pulse == null) {
+            fxExecutor.execute(this::drain);
+        } else if (Platform.isFxApplicationThread()) {
+            pulse.start();
+        } else {
+            Platform.runLater(pulse::start);
+        }
+    }
+
+    /**
+     * Drop all pending commands, e.g. when the media they were meant for is replaced
+     */
+    public synchronized void clear() {
+        pending.clear();
+    }
+
+    private void drain() {
+        List<Runnable> batch;
+        long latency;
+        synchronized (this) {
+            drainScheduled = false;
+            if (held || pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            latency = System.nanoTime() - oldestPendingNanos;
+            batchCount++;
+            lastLatencyNanos = latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        }
+        for (Runnable command : batch) {
+            command.run();
+        }
+    }
+
+    /**
+     * Commands waiting for the next batch
+     */
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public synchronized long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    /**
+     * Commands dropped because a newer one of the same type replaced them
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Time from the oldest command of the last batch being submitted to the batch being applied
+     */
+    public synchronized long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+}
@@ -1,13 +1,17 @@
 package com.liskovsoft.smarttube.desktop.player;
 
+import com.liskovsoft.smarttube.desktop.media.MediaKey;
+import com.liskovsoft.smarttube.desktop.media.MediaProxy;
 import javafx.application.Platform;
-import javafx.scene.media.Media;
+import javafx.scene.media.MediaException;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.media.MediaView;
 import javafx.util.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Enhanced video player for SmartTube Desktop
  * Supports various video formats and provides advanced playback controls
@@ -17,10 +21,32 @@ public class VideoPlayer {
     private static final Logger logger = LoggerFactory.getLogger(VideoPlayer.class);
     
     private final MediaView mediaView;
+    private final MediaPlayerPool pool = new MediaPlayerPool();
+    private final PlayerCommandQueue commands = new PlayerCommandQueue();
+    private MediaPlayerPool.Lease current;
+    /** Player for {@link #loadVideo(String, MediaKey)} still being constructed */
+    private CompletableFuture<MediaPlayerPool.Lease> pendingLoad;
+    /** Player for {@link #switchSource(String, MediaKey)} still being constructed */
+    private CompletableFuture<MediaPlayerPool.Lease> pendingSwitchBuild;
+    /** Constructed switch target waiting to become ready */
+    private MediaPlayerPool.Lease pendingSwitch;
     private MediaPlayer mediaPlayer;
-    private Media currentMedia;
     private boolean isInitialized = false;
     
+    /** How far the keyboard shortcuts seek */
+    public static final double SEEK_STEP_SECONDS = 10;
+    
+    /** Chunks fetched at a seek target before the player asks for them */
+    private static final int SEEK_PREFETCH_CHUNKS = 3;
+    
+    /** Assumed throughput before any media has been downloaded, in bits per second */
+    private static final long DEFAULT_BANDWIDTH = 1_500_000;
+    
+    private final BandwidthEstimator bandwidthEstimator = new BandwidthEstimator(DEFAULT_BANDWIDTH);
+    
+    private Runnable onError;
+    private Runnable onEndOfMedia;
+    
     public VideoPlayer(MediaView mediaView) {
         this.mediaView = mediaView;
         setupMediaView();
@@ -35,27 +61,58 @@ public class VideoPlayer {
     }
     
     public void loadVideo(String videoUrl) {
+        loadVideo(videoUrl, null);
+    }
+    
+    /**
+     * Load a stream; {@code key} identifies it in the on-disk media cache and may be null. Unless a preloaded
+     * player is adopted, the player is constructed in the background; control calls made meanwhile are
+     * applied once it is attached. Must be called on the FX thread.
+     */
+    public void loadVideo(String videoUrl, MediaKey key) {
         logger.info("Loading video: {}", videoUrl);
         
         try {
-            // Clean up previous media player
-            if (mediaPlayer != null) {
-                mediaPlayer.stop();
-                mediaPlayer.dispose();
-            }
-            
-            // Create new media and player
-            currentMedia = new Media(videoUrl);
-            mediaPlayer = new MediaPlayer(currentMedia);
+            cancelPendingSwitch();
+            pendingLoad = null;
+            // Controls meant for the previous media must not land on the new one
+            commands.clear();
+            commands.resume();
             
-            // Set up media player
-            setupMediaPlayer();
+            // Clean up previous media player
+            retire(current);
+            current = null;
+            mediaPlayer = null;
+            isInitialized = false;
             
-            // Bind to media view
-            mediaView.setMediaPlayer(mediaPlayer);
+            MediaPlayerPool.Lease preloaded = pool.take(videoUrl);
+            if (preloaded != null) {
+                // Already buffering in the background; take it over as is
+                logger.info("Using preloaded player");
+                attach(preloaded);
+                return;
+            }
             
-            isInitialized = true;
-            logger.info("Video loaded successfully");
+            String playbackUrl = proxied(videoUrl, key);
+            CompletableFuture<MediaPlayerPool.Lease> build = pool.acquire(videoUrl, playbackUrl, proxyUrlOf(videoUrl, playbackUrl));
+            pendingLoad = build;
+            commands.hold();
+            build.whenCompleteAsync((lease, error) -> {
+                if (pendingLoad != build) {
+                    // Replaced by a later load
+                    pool.release(lease);
+                    return;
+                }
+                pendingLoad = null;
+                if (error != null) {
+                    logger.error("Failed to load video: {}", videoUrl, error);
+                    commands.clear();
+                    commands.resume();
+                    return;
+                }
+                attach(lease);
+                commands.resume();
+            }, Platform::runLater);
             
         } catch (Exception e) {
             logger.error("Failed to load video: {}", videoUrl, e);
@@ -63,6 +120,227 @@ public class VideoPlayer {
         }
     }
     
+    private void attach(MediaPlayerPool.Lease lease) {
+        current = lease;
+        mediaPlayer = lease.getPlayer();
+        
+        // Set up media player
+        setupMediaPlayer();
+        
+        // Bind to media view
+        mediaView.setMediaPlayer(mediaPlayer);
+        
+        isInitialized = true;
+        logger.info("Video loaded successfully");
+    }
+    
+    /**
+     * Whether control calls reach a player, now or once the one being constructed is attached
+     */
+    private boolean acceptsCommands() {
+        return (isInitialized && mediaPlayer != null) || pendingLoad != null;
+    }
+    
+    /**
+     * Switch the current video to another stream of it, e.g. a different quality, without a visible restart.
+     * The old stream keeps playing until the new one is ready; the new one then takes over at the same
+     * position. Must be called on the FX thread.
+     */
+    public void switchSource(String videoUrl) {
+        switchSource(videoUrl, null);
+    }
+    
+    public void switchSource(String videoUrl, MediaKey key) {
+        if (!isInitialized || mediaPlayer == null) {
+            loadVideo(videoUrl, key);
+            return;
+        }
+        logger.info("Switching source: {}", videoUrl);
+        
+        cancelPendingSwitch();
+        try {
+            String playbackUrl = proxied(videoUrl, key);
+            CompletableFuture<MediaPlayerPool.Lease> build = pool.acquire(videoUrl, playbackUrl, proxyUrlOf(videoUrl, playbackUrl));
+            pendingSwitchBuild = build;
+            build.whenCompleteAsync((next, error) -> {
+                if (pendingSwitchBuild != build) {
+                    pool.release(next);
+                    return;
+                }
+                pendingSwitchBuild = null;
+                if (error != null) {
+                    logger.error("Source switch failed: {}", error.getMessage());
+                    return;
+                }
+                awaitSwitch(next);
+            }, Platform::runLater);
+        } catch (Exception e) {
+            logger.error("Failed to switch source: {}", videoUrl, e);
+        }
+    }
+    
+    private void awaitSwitch(MediaPlayerPool.Lease next) {
+        pendingSwitch = next;
+        
+        next.getPlayer().setOnReady(() -> {
+            if (pendingSwitch != next) {
+                return;
+            }
+            pendingSwitch = null;
+            completeSwitch(next);
+        });
+        
+        next.getPlayer().setOnError(() -> failSwitch(next));
+        
+        // A preloaded or quickly opened player may have got there before the handlers were installed
+        MediaPlayer.Status status = next.getPlayer().getStatus();
+        if (status == MediaPlayer.Status.HALTED) {
+            failSwitch(next);
+        } else if (status == MediaPlayer.Status.READY || status == MediaPlayer.Status.PAUSED
+                || status == MediaPlayer.Status.STOPPED) {
+            pendingSwitch = null;
+            completeSwitch(next);
+        }
+    }
+    
+    private void failSwitch(MediaPlayerPool.Lease next) {
+        MediaException error = next.getPlayer().getError();
+        logger.error("Source switch failed: {}", error != null ? error.getMessage() : "unknown");
+        if (pendingSwitch == next) {
+            pendingSwitch = null;
+            pool.release(next);
+        }
+    }
+    
+    /**
+     * Whether a {@link #switchSource(String, MediaKey)} is waiting for its new player to be built or ready
+     */
+    public boolean isSwitchPending() {
+        return pendingSwitchBuild != null || pendingSwitch != null;
+    }
+    
+    private void completeSwitch(MediaPlayerPool.Lease next) {
+        MediaPlayer previous = mediaPlayer;
+        boolean wasPlaying = previous.getStatus() == MediaPlayer.Status.PLAYING;
+        Duration position = previous.getCurrentTime();
+        double volume = previous.getVolume();
+        boolean mute = previous.isMute();
+        double rate = previous.getRate();
+        
+        MediaPlayerPool.Lease retired = current;
+        current = next;
+        mediaPlayer = next.getPlayer();
+        setupMediaPlayer();
+        mediaPlayer.setVolume(volume);
+        mediaPlayer.setMute(mute);
+        mediaPlayer.setRate(rate);
+        mediaPlayer.seek(position);
+        if (wasPlaying) {
+            mediaPlayer.play();
+        }
+        mediaView.setMediaPlayer(mediaPlayer);
+        
+        retire(retired);
+        logger.info("Source switched at {} seconds", position.toSeconds());
+    }
+    
+    /**
+     * Open {@code videoUrl} in a second, paused player so that it prerolls and buffers its first seconds
+     * while the current media plays. A later {@link #loadVideo(String, MediaKey)} of the same URL adopts
+     * that player instead of creating one. Replaces any earlier preload. Must be called on the FX thread.
+     */
+    public void preload(String videoUrl, MediaKey key) {
+        if (pool.isPrepared(videoUrl)) {
+            return;
+        }
+        logger.info("Preloading: {}", videoUrl);
+        
+        try {
+            String playbackUrl = proxied(videoUrl, key);
+            pool.prepare(videoUrl, playbackUrl, proxyUrlOf(videoUrl, playbackUrl));
+        } catch (Exception e) {
+            logger.error("Failed to preload: {}", videoUrl, e);
+        }
+    }
+    
+    /**
+     * Drop the player prepared by {@link #preload(String, MediaKey)}, if any
+     */
+    public void cancelPreload() {
+        pool.cancelPrepared();
+    }
+    
+    private void cancelPendingSwitch() {
+        // A switch target still being constructed is released when it arrives
+        pendingSwitchBuild = null;
+        retire(pendingSwitch);
+        pendingSwitch = null;
+    }
+    
+    /**
+     * Silence a player at once and leave stopping and disposing of it to the pool's background thread
+     */
+    private void retire(MediaPlayerPool.Lease lease) {
+        if (lease != null) {
+            lease.getPlayer().setMute(true);
+            pool.release(lease);
+        }
+    }
+    
+    /**
+     * Route remote media through the local read-ahead proxy, which also feeds the bandwidth estimator
+     */
+    private String proxied(String videoUrl, MediaKey key) {
+        if (!MediaProxy.isEnabled() || !videoUrl.startsWith("https://")) {
+            return videoUrl;
+        }
+        try {
+            return MediaProxy.getInstance().register(videoUrl, key, bandwidthEstimator::addSample);
+        } catch (RuntimeException e) {
+            logger.warn("Media proxy unavailable, playing directly: {}", e.getMessage());
+            return videoUrl;
+        }
+    }
+    
+    private static String proxyUrlOf(String videoUrl, String playbackUrl) {
+        return playbackUrl.equals(videoUrl) ? null : playbackUrl;
+    }
+    
+    private String currentProxyUrl() {
+        return current != null ? current.getProxyUrl() : null;
+    }
+    
+    /**
+     * Download the bytes a seek to {@code seconds} will read before the player asks for them, and warm the
+     * positions one keyboard seek step either side of it
+     */
+    private void prefetchAround(double seconds) {
+        String proxyUrl = currentProxyUrl();
+        if (proxyUrl == null) {
+            return;
+        }
+        MediaProxy proxy = MediaProxy.getInstance();
+        double duration = getTotalTime();
+        proxy.prefetchAt(proxyUrl, seconds, duration, SEEK_PREFETCH_CHUNKS);
+        proxy.prefetchAt(proxyUrl, Math.max(0, seconds - SEEK_STEP_SECONDS), duration, 1);
+        proxy.prefetchAt(proxyUrl, seconds + SEEK_STEP_SECONDS, duration, 1);
+    }
+    
+    /**
+     * Read-ahead buffer state of the current media, or null when it is not played through the proxy
+     */
+    public MediaProxy.BufferHealth getBufferHealth() {
+        String proxyUrl = currentProxyUrl();
+        return proxyUrl != null ? MediaProxy.getInstance().getBufferHealth(proxyUrl) : null;
+    }
+    
+    /**
+     * Whether throughput of the current media is measured from real downloaded bytes
+     */
+    public boolean isThroughputMeasured() {
+        return currentProxyUrl() != null;
+    }
+    
     private void setupMediaPlayer() {
         if (mediaPlayer == null) return;
         
@@ -76,10 +354,16 @@ public class VideoPlayer {
             if (mediaPlayer.getError() != null) {
                 logger.error("Media player error: {}", mediaPlayer.getError().getMessage());
             }
+            if (onError != null) {
+                onError.run();
+            }
         });
         
         mediaPlayer.setOnEndOfMedia(() -> {
             logger.info("End of media reached");
+            if (onEndOfMedia != null) {
+                onEndOfMedia.run();
+            }
         });
         
         mediaPlayer.setOnPlaying(() -> {
@@ -102,8 +386,8 @@ public class VideoPlayer {
     }
     
     public void play() {
-        if (isInitialized && mediaPlayer != null) {
-            Platform.runLater(() -> {
+        if (acceptsCommands()) {
+            commands.submit(PlayerCommandQueue.Type.TRANSPORT, () -> {
                 try {
                     mediaPlayer.play();
                     logger.debug("Playing video");
@@ -115,8 +399,8 @@ public class VideoPlayer {
     }
     
     public void pause() {
-        if (isInitialized && mediaPlayer != null) {
-            Platform.runLater(() -> {
+        if (acceptsCommands()) {
+            commands.submit(PlayerCommandQueue.Type.TRANSPORT, () -> {
                 try {
                     mediaPlayer.pause();
                     logger.debug("Paused video");
@@ -128,8 +412,8 @@ public class VideoPlayer {
     }
     
     public void stop() {
-        if (isInitialized && mediaPlayer != null) {
-            Platform.runLater(() -> {
+        if (acceptsCommands()) {
+            commands.submit(PlayerCommandQueue.Type.TRANSPORT, () -> {
                 try {
                     mediaPlayer.stop();
                     logger.debug("Stopped video");
@@ -141,9 +425,11 @@ public class VideoPlayer {
     }
     
     public void seek(double seconds) {
-        if (isInitialized && mediaPlayer != null) {
-            Platform.runLater(() -> {
+        if (acceptsCommands()) {
+            commands.submit(PlayerCommandQueue.Type.SEEK, () -> {
                 try {
+                    // Inside the command, so a burst of seeks prefetches only for the target that is applied
+                    prefetchAround(seconds);
                     Duration seekTime = Duration.seconds(seconds);
                     mediaPlayer.seek(seekTime);
                     logger.debug("Seeking to {} seconds", seconds);
@@ -155,8 +441,8 @@ public class VideoPlayer {
     }
     
     public void setVolume(double volume) {
-        if (isInitialized && mediaPlayer != null) {
-            Platform.runLater(() -> {
+        if (acceptsCommands()) {
+            commands.submit(PlayerCommandQueue.Type.VOLUME, () -> {
                 try {
                     // Clamp volume between 0.0 and 1.0
                     double clampedVolume = Math.max(0.0, Math.min(1.0, volume));
@@ -192,6 +478,53 @@ public class VideoPlayer {
         return 0.0;
     }
     
+    /**
+     * How far the current media has been downloaded, in seconds of playback
+     */
+    public double getBufferProgressTime() {
+        if (isInitialized && mediaPlayer != null) {
+            Duration buffered = mediaPlayer.getBufferProgressTime();
+            return buffered != null && !buffered.isUnknown() ? buffered.toSeconds() : 0.0;
+        }
+        return 0.0;
+    }
+    
+    /**
+     * Seconds of media downloaded beyond the playback position
+     */
+    public double getBufferedAheadTime() {
+        return Math.max(0.0, getBufferProgressTime() - getCurrentTime());
+    }
+    
+    public boolean isStalled() {
+        return isInitialized && mediaPlayer != null && mediaPlayer.getStatus() == MediaPlayer.Status.STALLED;
+    }
+    
+    /**
+     * Called on the FX thread when the current media fails to play
+     */
+    public void setOnError(Runnable onError) {
+        this.onError = onError;
+    }
+    
+    /**
+     * Called on the FX thread when the current media plays to its end
+     */
+    public void setOnEndOfMedia(Runnable onEndOfMedia) {
+        this.onEndOfMedia = onEndOfMedia;
+    }
+    
+    /**
+     * Queue through which control calls reach the player, exposed for its depth and latency figures
+     */
+    public PlayerCommandQueue getCommandQueue() {
+        return commands;
+    }
+    
+    public BandwidthEstimator getBandwidthEstimator() {
+        return bandwidthEstimator;
+    }
+    
     public boolean isPlaying() {
         if (isInitialized && mediaPlayer != null) {
             try {
@@ -204,8 +537,8 @@ public class VideoPlayer {
     }
     
     public void setPlaybackRate(double rate) {
-        if (isInitialized && mediaPlayer != null) {
-            Platform.runLater(() -> {
+        if (acceptsCommands()) {
+            commands.submit(PlayerCommandQueue.Type.RATE, () -> {
                 try {
                     // Clamp playback rate between 0.1 and 3.0
                     double clampedRate = Math.max(0.1, Math.min(3.0, rate));
@@ -219,8 +552,8 @@ public class VideoPlayer {
     }
     
     public void setMute(boolean mute) {
-        if (isInitialized && mediaPlayer != null) {
-            Platform.runLater(() -> {
+        if (acceptsCommands()) {
+            commands.submit(PlayerCommandQueue.Type.MUTE, () -> {
                 try {
                     mediaPlayer.setMute(mute);
                     logger.debug("Set mute to {}", mute);
@@ -232,12 +565,15 @@ public class VideoPlayer {
     }
     
     public void dispose() {
-        if (mediaPlayer != null) {
+        cancelPendingSwitch();
+        cancelPreload();
+        pendingLoad = null;
+        commands.clear();
+        if (current != null) {
             try {
-                mediaPlayer.stop();
-                mediaPlayer.dispose();
+                retire(current);
+                current = null;
                 mediaPlayer = null;
-                currentMedia = null;
                 isInitialized = false;
                 logger.info("Media player disposed");
             } catch (Exception e) {
@@ -0,0 +1,189 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD limit on the number of concurrent requests sent upstream.
+ * <p>
+ * The limit grows by roughly one per round trip while requests succeed with latency close to the
+ * observed baseline, and is cut multiplicatively when a request fails or the smoothed latency rises
+ * well above that baseline. Callers beyond the current limit wait in {@link #acquire(NetworkScheduler.Lane)}
+ * and are admitted in lane order. Background work also leaves one slot free for more urgent lanes, so a
+ * click never waits for a prefetch to finish even when congestion has cut the limit to two.
+ * <p>
+ * Latency is time to response headers, so body size does not count as congestion, and it is tracked
+ * per endpoint: a small API call and a large watch page have very different normal latencies, and one
+ * shared baseline would read ordinary mixed traffic as a slowdown.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double DECREASE_FACTOR = 0.75;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double SHORT_SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final int MAX_TRACKED_ENDPOINTS = 64;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private final int[] waiting = new int[NetworkScheduler.Lane.values().length];
+    private long lastDecreaseNanos;
+    private final Map<String, Latency> latencies = new LinkedHashMap<String, Latency>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Latency> eldest) {
+            return size() > MAX_TRACKED_ENDPOINTS;
+        }
+    };
+
+    public AdaptiveConcurrencyLimiter() {
+        this(Integer.getInteger("smarttube.http.initialConcurrency", 4), 1,
+            Integer.getInteger("smarttube.http.maxConcurrency", 32));
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Wait for a slot and return the start timestamp to pass back to {@link #release(String, long, long, boolean)}
+     */
+    public long acquire(NetworkScheduler.Lane lane) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            waiting[lane.ordinal()]++;
+            try {
+                while (!canAcquire(lane)) {
+                    permitAvailable.await();
+                }
+            } finally {
+                waiting[lane.ordinal()]--;
+                // Less urgent waiters may have been held back only by this one
+                permitAvailable.signalAll();
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAcquire(NetworkScheduler.Lane lane) {
+        int available = (int) limit;
+        if (lane == NetworkScheduler.Lane.BACKGROUND && available > 1) {
+            available--;
+        }
+        if (inFlight >= available) {
+            return false;
+        }
+        for (int i = 0; i < lane.ordinal(); i++) {
+            if (waiting[i] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a slot and feed the request's outcome into the limit
+     *
+     * @param endpoint class of request whose latencies are comparable, e.g. host and path
+     * @param startNanos value returned by {@link #acquire()}
+     * @param headersNanos when the response headers arrived, or 0 if none did
+     * @param success false for throttling, server errors, timeouts and unreadable bodies
+     */
+    public void release(String endpoint, long startNanos, long headersNanos, boolean success) {
+        long now = System.nanoTime();
+        long rtt = (headersNanos > 0 ? headersNanos : now) - startNanos;
+
+        lock.lock();
+        try {
+            int concurrency = inFlight;
+            inFlight--;
+
+            Latency latency = latencies.get(endpoint);
+            if (latency == null) {
+                latency = new Latency(rtt);
+                latencies.put(endpoint, latency);
+            } else {
+                latency.add(rtt);
+            }
+
+            boolean congested = latency.smoothedNanos > latency.baselineNanos * LATENCY_TOLERANCE;
+            if (!success || congested) {
+                // Cut at most once per round trip so one burst of slow responses counts as one signal
+                if (now - lastDecreaseNanos > latency.smoothedNanos) {
+                    limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+                    lastDecreaseNanos = now;
+                }
+            } else if (concurrency >= (int) limit / 2) {
+                // Only grow when the current limit is actually being used
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Baseline time to headers of an endpoint, or 0 if it has not been seen
+     */
+    public long getBaselineRttMillis(String endpoint) {
+        lock.lock();
+        try {
+            Latency latency = latencies.get(endpoint);
+            return latency != null ? TimeUnit.NANOSECONDS.toMillis((long) latency.baselineNanos) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Latency history of one endpoint
+     */
+    private static final class Latency {
+        double smoothedNanos;
+        double baselineNanos;
+
+        Latency(long rtt) {
+            smoothedNanos = rtt;
+            baselineNanos = rtt;
+        }
+
+        void add(long rtt) {
+            smoothedNanos += (rtt - smoothedNanos) * SHORT_SMOOTHING;
+            // Track the fastest recent latency, drifting up slowly so the baseline follows real changes
+            baselineNanos = rtt < baselineNanos ? rtt : baselineNanos + (rtt - baselineNanos) * BASELINE_DRIFT;
+        }
+    }
+}
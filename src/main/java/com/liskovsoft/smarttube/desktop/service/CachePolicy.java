@@ -0,0 +1,45 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Per-call freshness policy for the response cache.
+ * <p>
+ * NewPipe builds its own requests, so the service layer cannot attach cache directives to them directly.
+ * Extraction runs synchronously on the calling thread, which lets the policy travel as a thread-local
+ * scoped around the extractor call:
+ * <pre>
+ * CachePolicy.withMaxAge(Duration.ofMinutes(5), () -&gt; extractor.fetchPage());
+ * </pre>
+ */
+public final class CachePolicy {
+
+    private static final ThreadLocal<Duration> MAX_AGE = new ThreadLocal<>();
+
+    private CachePolicy() {}
+
+    /**
+     * Run an action with responses considered fresh for {@code maxAge}, overriding server cache headers
+     */
+    public static <T> T withMaxAge(Duration maxAge, Callable<T> action) throws Exception {
+        Duration previous = MAX_AGE.get();
+        MAX_AGE.set(maxAge);
+        try {
+            return action.call();
+        } finally {
+            if (previous != null) {
+                MAX_AGE.set(previous);
+            } else {
+                MAX_AGE.remove();
+            }
+        }
+    }
+
+    /**
+     * Freshness override for the current thread, or null to follow server cache headers
+     */
+    public static Duration currentMaxAge() {
+        return MAX_AGE.get();
+    }
+}
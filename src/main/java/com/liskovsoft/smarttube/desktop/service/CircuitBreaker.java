@@ -0,0 +1,127 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Circuit breaker that stops sending requests to a host after repeated rate limiting.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens for at least {@code openMillis}
+ * (longer if the server asked for it). Once that elapses a single probe request is let through in
+ * the half-open state; its outcome closes or re-opens the circuit.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntilMillis;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Whether a request may be sent now. In the half-open state only one probe is admitted.
+     */
+    public boolean allowRequest() {
+        State changed = null;
+        boolean allowed;
+        synchronized (this) {
+            if (state == State.OPEN && System.currentTimeMillis() >= openUntilMillis) {
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+                changed = state;
+            }
+
+            if (state == State.CLOSED) {
+                allowed = true;
+            } else if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                allowed = true;
+            } else {
+                allowed = false;
+            }
+        }
+        notifyListeners(changed);
+        return allowed;
+    }
+
+    public void recordSuccess() {
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                changed = state;
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    /**
+     * Record a rate-limited response
+     *
+     * @param retryAfterMillis server-requested delay, or 0 if none was given
+     */
+    public void recordFailure(long retryAfterMillis) {
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures++;
+            probeInFlight = false;
+            if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                openUntilMillis = System.currentTimeMillis() + Math.max(openMillis, retryAfterMillis);
+                if (state != State.OPEN) {
+                    state = State.OPEN;
+                    changed = state;
+                }
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    /**
+     * Release a half-open probe that ended without a verdict, e.g. on a network error
+     */
+    public synchronized void abortProbe() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() < openUntilMillis;
+    }
+
+    public void addStateListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    private void notifyListeners(State changed) {
+        if (changed == null) {
+            return;
+        }
+        for (Consumer<State> listener : listeners) {
+            try {
+                listener.accept(changed);
+            } catch (Exception e) {
+                System.err.println("Error in circuit breaker listener: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded key/value store on disk with least-recently-used eviction.
+ * <p>
+ * One file per entry; the access order survives restarts through file modification times.
+ * Keys are used as file names, so callers should pass {@link #hashKey(String)} output.
+ */
+public class DiskLruStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    public DiskLruStore(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        loadIndex();
+    }
+
+    /**
+     * Per-user cache directory, e.g. {@code ~/.smarttube/cache/http}
+     */
+    public static File cacheDirectory(String name) {
+        return new File(new File(new File(System.getProperty("user.home"), ".smarttube"), "cache"), name);
+    }
+
+    public static String hashKey(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    private synchronized void loadIndex() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.err.println("Could not create cache directory: " + directory);
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // Oldest first so the access-ordered map ends with the most recently used entry
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            entries.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    /**
+     * Read an entry, or null if absent. The file is read outside the lock, so one that a concurrent
+     * eviction deleted or that cannot be read right now is reported as a miss but left in the index;
+     * removing it here could drop a value a concurrent {@link #put} has just stored.
+     */
+    public byte[] get(String key) {
+        File file;
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+            file = new File(directory, key);
+        }
+
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * File backing an entry, or null if absent. Marks the entry as used.
+     */
+    public File getFile(String key) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+        File file = new File(directory, key);
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public void put(String key, byte[] data) {
+        if (data.length > maxBytes) {
+            // Too large to keep; drop any older value so it is not served in place of this one
+            remove(key);
+            return;
+        }
+
+        File target = new File(directory, key);
+        File temp = new File(directory, key + TEMP_SUFFIX + Thread.currentThread().getId());
+        try {
+            Files.write(temp.toPath(), data);
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            System.err.println("Error writing cache entry: " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            Long previous = entries.put(key, (long) data.length);
+            totalBytes += data.length - (previous != null ? previous : 0);
+            trimToSize();
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+            new File(directory, key).delete();
+        }
+    }
+
+    public synchronized void clear() {
+        for (String key : entries.keySet()) {
+            new File(directory, key).delete();
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            totalBytes -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+            iterator.remove();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
@@ -7,32 +7,97 @@ import org.schabi.newpipe.extractor.downloader.Response;
 import org.schabi.newpipe.extractor.exceptions.ReCaptchaException;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InterruptedIOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of NewPipe Downloader using OkHttp
  */
 public class DownloaderImpl extends Downloader {
     
+    private static final int MAX_RETRIES = 3;
+    private static final long MAX_RETRY_WAIT_MILLIS = 30_000;
+    
+    private static volatile DownloaderImpl instance;
+    
     private final OkHttpClient client;
+    private final ResponseCache responseCache;
+    private final ResponseBodyDecoder bodyDecoder;
+    private final HostRateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
     
     public DownloaderImpl() {
-        this.client = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(30, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
+        this(HttpTransport.getInstance().client(), new ResponseCache(),
+            HttpTransport.getInstance().getConfig().getMaxBodyBytes(), new HostRateLimiter(),
+            new AdaptiveConcurrencyLimiter());
+    }
+    
+    public DownloaderImpl(OkHttpClient client, ResponseCache responseCache, long maxBodyBytes,
+                          HostRateLimiter rateLimiter, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.client = client;
+        this.responseCache = responseCache;
+        this.bodyDecoder = new ResponseBodyDecoder(maxBodyBytes);
+        this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+    
+    /**
+     * Shared downloader backed by the application-wide {@link HttpTransport}
+     */
+    public static DownloaderImpl getInstance() {
+        if (instance == null) {
+            synchronized (DownloaderImpl.class) {
+                if (instance == null) {
+                    instance = new DownloaderImpl();
+                }
+            }
+        }
+        return instance;
     }
     
     @Override
     public Response execute(Request request) throws IOException, ReCaptchaException {
         
+        String cacheKey = ResponseCache.keyFor(request);
+        Duration policyMaxAge = CachePolicy.currentMaxAge();
+        ResponseCache.Entry cached = responseCache.get(cacheKey);
+        
+        if (cached != null && cached.isFresh(policyMaxAge, System.currentTimeMillis())) {
+            responseCache.recordHit();
+            return cached.toResponse();
+        }
+        
+        okhttp3.Request okRequest = buildRequest(request, cached);
+        
+        // While a host is refusing us, a stale copy beats failing outright
+        if (cached != null && rateLimiter.isOpen(okRequest.url().host())) {
+            responseCache.recordHit();
+            return cached.toResponse();
+        }
+        
+        Response response = executeWithRetry(okRequest, request.url());
+        
+        if (response.responseCode() == 304 && cached != null) {
+            responseCache.recordRevalidation();
+            responseCache.refresh(cacheKey, cached);
+            return cached.toResponse();
+        }
+        
+        responseCache.recordMiss();
+        responseCache.put(cacheKey, response, policyMaxAge);
+        return response;
+    }
+    
+    private okhttp3.Request buildRequest(Request request, ResponseCache.Entry cached) {
+        
+        byte[] dataToSend = request.dataToSend();
+        RequestBody requestBody = dataToSend != null ? RequestBody.create(dataToSend, null) : null;
+        
         okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
             .url(request.url())
-            .method(request.httpMethod(), null);
+            .method(request.httpMethod(), requestBody);
         
         // Add headers
         for (Map.Entry<String, List<String>> header : request.headers().entrySet()) {
@@ -47,30 +112,122 @@ public class DownloaderImpl extends Downloader {
                 "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36");
         }
         
-        try (okhttp3.Response response = client.newCall(requestBuilder.build()).execute()) {
-            
-            if (response.code() == 429) {
-                throw new ReCaptchaException("Too many requests", request.url());
+        // Revalidate a stale cache entry instead of refetching it
+        if (cached != null) {
+            if (cached.getETag() != null) {
+                requestBuilder.header("If-None-Match", cached.getETag());
+            }
+            if (cached.getLastModified() != null) {
+                requestBuilder.header("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        
+        return requestBuilder.build();
+    }
+    
+    /**
+     * Send a request through the host's rate limiter, backing off and retrying on 429
+     */
+    private Response executeWithRetry(okhttp3.Request okRequest, String url) throws IOException, ReCaptchaException {
+        
+        HostRateLimiter.HostGuard guard = rateLimiter.forHost(okRequest.url().host());
+        CircuitBreaker circuitBreaker = guard.getCircuitBreaker();
+        
+        for (int attempt = 0; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                throw new ReCaptchaException("Too many requests, backing off from " + okRequest.url().host(), url);
             }
             
-            String responseBody = response.body() != null ? response.body().string() : "";
+            long retryAfterMillis;
+            try {
+                // Prefetches and thumbnails must not hold up what the user is waiting for
+                NetworkScheduler.Lane lane = NetworkScheduler.currentLane();
+                guard.getTokenBucket().acquire(lane != NetworkScheduler.Lane.BACKGROUND);
+                
+                long startNanos = concurrencyLimiter.acquire(lane);
+                long headersNanos = 0;
+                boolean healthy = false;
+                Call call = client.newCall(okRequest);
+                // Cancelling the task aborts this call, and only this call
+                IoExecutor.Cancellation cancellation = IoExecutor.currentCancellation();
+                Runnable abort = call::cancel;
+                if (cancellation != null && !cancellation.setAbortAction(abort)) {
+                    call.cancel();
+                }
+                try (okhttp3.Response response = call.execute()) {
+                    // execute() returns once headers are in; the body is read below
+                    headersNanos = System.nanoTime();
+                    
+                    if (response.code() != 429) {
+                        circuitBreaker.recordSuccess();
+                        Response result = toResponse(response);
+                        healthy = response.code() < 500;
+                        return result;
+                    }
+                    
+                    retryAfterMillis = HostRateLimiter.parseRetryAfter(response.header("Retry-After"));
+                } finally {
+                    if (cancellation != null) {
+                        cancellation.clearAbortAction(abort);
+                    }
+                    concurrencyLimiter.release(endpointOf(okRequest), startNanos, headersNanos, healthy);
+                }
+            } catch (IOException e) {
+                circuitBreaker.abortProbe();
+                throw new IOException("Network error: " + e.getMessage(), e);
+            } catch (InterruptedException e) {
+                circuitBreaker.abortProbe();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limiter");
+            }
             
-            // Convert response headers
-            Map<String, List<String>> responseHeaders = new HashMap<>();
-            for (String name : response.headers().names()) {
-                responseHeaders.put(name, response.headers().values(name));
+            circuitBreaker.recordFailure(retryAfterMillis);
+            if (retryAfterMillis > 0) {
+                guard.getTokenBucket().pauseFor(retryAfterMillis);
             }
             
-            return new Response(
-                response.code(),
-                response.message(),
-                responseHeaders,
-                responseBody,
-                response.request().url().toString()
-            );
+            long backoffMillis = HostRateLimiter.backoffMillis(attempt, retryAfterMillis);
+            if (attempt >= MAX_RETRIES || backoffMillis > MAX_RETRY_WAIT_MILLIS) {
+                throw new ReCaptchaException("Too many requests", url);
+            }
             
-        } catch (IOException e) {
-            throw new IOException("Network error: " + e.getMessage(), e);
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off");
+            }
         }
     }
+    
+    /**
+     * Requests whose latencies are comparable for concurrency limiting
+     */
+    private static String endpointOf(okhttp3.Request request) {
+        return request.method() + " " + request.url().host() + request.url().encodedPath();
+    }
+    
+    private Response toResponse(okhttp3.Response response) throws IOException {
+        String responseBody = response.body() != null ? bodyDecoder.decode(response.body()) : "";
+        
+        return new Response(
+            response.code(),
+            response.message(),
+            new LazyHeaderMap(response.headers()),
+            responseBody,
+            response.request().url().toString()
+        );
+    }
+    
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+    
+    public HostRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+    
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
 }
@@ -0,0 +1,143 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * Per-host rate limiting for outbound requests: a token bucket, exponential backoff with jitter
+ * that honours {@code Retry-After}, and a circuit breaker.
+ */
+public class HostRateLimiter {
+
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final double requestsPerSecond;
+    private final double burst;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final ConcurrentHashMap<String, HostGuard> guards = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, CircuitBreaker.State>> listeners = new CopyOnWriteArrayList<>();
+
+    public HostRateLimiter() {
+        this(doubleProperty("smarttube.http.requestsPerSecond", 10), doubleProperty("smarttube.http.burst", 20), 3, 60_000);
+    }
+
+    public HostRateLimiter(double requestsPerSecond, double burst, int failureThreshold, long openMillis) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public HostGuard forHost(String host) {
+        return guards.computeIfAbsent(host, h -> {
+            HostGuard guard = new HostGuard(new TokenBucket(burst, requestsPerSecond),
+                new CircuitBreaker(failureThreshold, openMillis));
+            guard.circuitBreaker.addStateListener(state -> notifyListeners(h, state));
+            return guard;
+        });
+    }
+
+    /**
+     * Whether requests to the host are currently being refused
+     */
+    public boolean isOpen(String host) {
+        HostGuard guard = guards.get(host);
+        return guard != null && guard.circuitBreaker.isOpen();
+    }
+
+    /**
+     * Listen for circuit state changes of any host. Called on the requesting thread.
+     *
+     * @return removes the listener again; owners that are shorter-lived than this limiter must call it
+     */
+    public Runnable addStateListener(BiConsumer<String, CircuitBreaker.State> listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    private void notifyListeners(String host, CircuitBreaker.State state) {
+        for (BiConsumer<String, CircuitBreaker.State> listener : listeners) {
+            listener.accept(host, state);
+        }
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            if (parsed > 0 && !Double.isInfinite(parsed)) {
+                return parsed;
+            }
+        } catch (NumberFormatException ignored) {
+            // Reported below
+        }
+        System.err.println("Ignoring invalid value for " + name + ": " + value);
+        return defaultValue;
+    }
+
+    /**
+     * Delay before retry number {@code attempt} (0-based): full-jitter exponential backoff,
+     * never shorter than what the server asked for
+     */
+    public static long backoffMillis(int attempt, long retryAfterMillis) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        long jittered = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        return Math.max(jittered, retryAfterMillis);
+    }
+
+    /**
+     * Parse a {@code Retry-After} header given either as delay seconds or as an HTTP date
+     *
+     * @return delay in milliseconds, or 0 if absent or unparseable
+     */
+    public static long parseRetryAfter(String header) {
+        if (header == null || header.isEmpty()) {
+            return 0;
+        }
+        String value = header.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) {
+            // Not delta-seconds, try HTTP-date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Rate limiting state for one host
+     */
+    public static final class HostGuard {
+        private final TokenBucket tokenBucket;
+        private final CircuitBreaker circuitBreaker;
+
+        HostGuard(TokenBucket tokenBucket, CircuitBreaker circuitBreaker) {
+            this.tokenBucket = tokenBucket;
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        public TokenBucket getTokenBucket() {
+            return tokenBucket;
+        }
+
+        public CircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+    }
+}
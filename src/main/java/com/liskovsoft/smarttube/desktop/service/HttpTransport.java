@@ -0,0 +1,214 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.brotli.BrotliInterceptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-wide HTTP transport shared by the extractor, thumbnail loading and media fetching.
+ * <p>
+ * Every subsystem talks to the same handful of Google hosts, so a single connection pool lets them
+ * reuse TLS sessions and HTTP/2 connections instead of each opening their own. Tunables are read from
+ * system properties (e.g. {@code -Dsmarttube.http.maxIdleConnections=16}).
+ */
+public final class HttpTransport {
+
+    private static final String PROPERTY_PREFIX = "smarttube.http.";
+
+    private static volatile HttpTransport instance;
+
+    private final Config config;
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    private final OkHttpClient client;
+
+    private HttpTransport(Config config) {
+        this.config = config;
+        this.connectionPool = new ConnectionPool(config.maxIdleConnections, config.keepAliveSeconds, TimeUnit.SECONDS);
+
+        this.dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.maxRequests);
+        dispatcher.setMaxRequestsPerHost(config.maxRequestsPerHost);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .connectionPool(connectionPool)
+            .dispatcher(dispatcher)
+            .connectTimeout(config.connectTimeoutSeconds, TimeUnit.SECONDS)
+            .readTimeout(config.readTimeoutSeconds, TimeUnit.SECONDS)
+            .writeTimeout(config.writeTimeoutSeconds, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(true)
+            // Advertises br/gzip and decodes transparently, so callers always see plain bytes
+            .addInterceptor(BrotliInterceptor.INSTANCE);
+
+        if (config.http2Enabled) {
+            builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        } else {
+            builder.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+        }
+
+        this.client = builder.build();
+    }
+
+    /**
+     * Get the shared transport, creating it from system properties on first use
+     */
+    public static HttpTransport getInstance() {
+        if (instance == null) {
+            synchronized (HttpTransport.class) {
+                if (instance == null) {
+                    instance = new HttpTransport(Config.fromSystemProperties());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * The shared client. Callers needing different timeouts should derive from it with
+     * {@code client().newBuilder()} so the pool and dispatcher stay shared.
+     */
+    public OkHttpClient client() {
+        return client;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public PoolStats getPoolStats() {
+        return new PoolStats(
+            connectionPool.connectionCount(),
+            connectionPool.idleConnectionCount(),
+            dispatcher.runningCallsCount(),
+            dispatcher.queuedCallsCount()
+        );
+    }
+
+    /**
+     * Release pooled connections and dispatcher threads, e.g. on application shutdown
+     */
+    public void shutdown() {
+        dispatcher.executorService().shutdown();
+        connectionPool.evictAll();
+    }
+
+    /**
+     * Transport tunables
+     */
+    public static final class Config {
+        int maxIdleConnections = 10;
+        long keepAliveSeconds = 300;
+        int maxRequests = 64;
+        int maxRequestsPerHost = 10;
+        boolean http2Enabled = true;
+        long connectTimeoutSeconds = 30;
+        long readTimeoutSeconds = 30;
+        long writeTimeoutSeconds = 30;
+        long maxBodyBytes = 16L * 1024 * 1024;
+
+        static Config fromSystemProperties() {
+            Config config = new Config();
+            config.maxIdleConnections = intProperty("maxIdleConnections", config.maxIdleConnections);
+            config.keepAliveSeconds = longProperty("keepAliveSeconds", config.keepAliveSeconds);
+            config.maxRequests = intProperty("maxRequests", config.maxRequests);
+            config.maxRequestsPerHost = intProperty("maxRequestsPerHost", config.maxRequestsPerHost);
+            config.http2Enabled = Boolean.parseBoolean(
+                System.getProperty(PROPERTY_PREFIX + "http2", String.valueOf(config.http2Enabled)));
+            config.connectTimeoutSeconds = longProperty("connectTimeoutSeconds", config.connectTimeoutSeconds);
+            config.readTimeoutSeconds = longProperty("readTimeoutSeconds", config.readTimeoutSeconds);
+            config.writeTimeoutSeconds = longProperty("writeTimeoutSeconds", config.writeTimeoutSeconds);
+            config.maxBodyBytes = longProperty("maxBodyBytes", config.maxBodyBytes);
+            return config;
+        }
+
+        private static int intProperty(String name, int defaultValue) {
+            return (int) longProperty(name, defaultValue);
+        }
+
+        private static long longProperty(String name, long defaultValue) {
+            String value = System.getProperty(PROPERTY_PREFIX + name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid value for " + PROPERTY_PREFIX + name + ": " + value);
+                return defaultValue;
+            }
+        }
+
+        public int getMaxIdleConnections() {
+            return maxIdleConnections;
+        }
+
+        public long getKeepAliveSeconds() {
+            return keepAliveSeconds;
+        }
+
+        public int getMaxRequests() {
+            return maxRequests;
+        }
+
+        public int getMaxRequestsPerHost() {
+            return maxRequestsPerHost;
+        }
+
+        public boolean isHttp2Enabled() {
+            return http2Enabled;
+        }
+
+        public long getMaxBodyBytes() {
+            return maxBodyBytes;
+        }
+    }
+
+    /**
+     * Snapshot of connection pool and dispatcher usage
+     */
+    public static final class PoolStats {
+        private final int connectionCount;
+        private final int idleConnectionCount;
+        private final int runningCalls;
+        private final int queuedCalls;
+
+        PoolStats(int connectionCount, int idleConnectionCount, int runningCalls, int queuedCalls) {
+            this.connectionCount = connectionCount;
+            this.idleConnectionCount = idleConnectionCount;
+            this.runningCalls = runningCalls;
+            this.queuedCalls = queuedCalls;
+        }
+
+        public int getConnectionCount() {
+            return connectionCount;
+        }
+
+        public int getIdleConnectionCount() {
+            return idleConnectionCount;
+        }
+
+        public int getRunningCalls() {
+            return runningCalls;
+        }
+
+        public int getQueuedCalls() {
+            return queuedCalls;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStats{" +
+                   "connections=" + connectionCount +
+                   ", idle=" + idleConnectionCount +
+                   ", running=" + runningCalls +
+                   ", queued=" + queuedCalls +
+                   '}';
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for blocking network work, kept off {@code ForkJoinPool.commonPool()}.
+ * <p>
+ * Uses one virtual thread per task when running on JDK 21+, otherwise a bounded pool of daemon threads.
+ * Futures returned by {@link #submit(Callable)} support real cancellation: cancelling interrupts the
+ * worker and runs the abort action the task registered with its {@link Cancellation}, e.g. cancelling
+ * the HTTP call it is blocked in. The action belongs to the task rather than to its thread, so a pooled
+ * thread that has moved on to other work is never affected.
+ */
+public class IoExecutor {
+
+    /** Cancellation of the task running on the current worker thread */
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    public IoExecutor(String name, int maxThreads) {
+        ExecutorService virtual = createVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : createBoundedPool(name, maxThreads);
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // Pre-21 runtime (or preview not enabled)
+            return null;
+        }
+    }
+
+    private static ExecutorService createBoundedPool(String name, int maxThreads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Run a blocking task. Cancelling the returned future interrupts the task and runs its registered
+     * abort action.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Cancellation cancellation = new Cancellation();
+
+        Future<?> submitted = executor.submit(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            CURRENT.set(cancellation);
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                CURRENT.remove();
+            }
+        });
+
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                cancellation.cancel();
+                submitted.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Cancellation of the task running on the calling thread, or null outside of a submitted task
+     */
+    public static Cancellation currentCancellation() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Per-task hook through which blocking work registers how to abort itself
+     */
+    public static final class Cancellation {
+        private Runnable abortAction;
+        private boolean cancelled;
+
+        /**
+         * Register how to abort the operation the task is about to block in
+         *
+         * @return false, without registering, if the task has already been cancelled
+         */
+        public synchronized boolean setAbortAction(Runnable action) {
+            if (cancelled) {
+                return false;
+            }
+            abortAction = action;
+            return true;
+        }
+
+        /**
+         * Unregister {@code action} once its operation is over
+         */
+        public synchronized void clearAbortAction(Runnable action) {
+            if (abortAction == action) {
+                abortAction = null;
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void cancel() {
+            Runnable action;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                action = abortAction;
+                abortAction = null;
+            }
+            if (action != null) {
+                action.run();
+            }
+        }
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,62 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import okhttp3.Headers;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only {@code Map} view over OkHttp {@link Headers}.
+ * <p>
+ * Lookups by name go straight to the underlying headers (case-insensitively); the name-to-values
+ * entries are only materialised if a caller iterates the map.
+ */
+final class LazyHeaderMap extends AbstractMap<String, List<String>> {
+
+    private final Headers headers;
+    private Set<Map.Entry<String, List<String>>> entries;
+
+    LazyHeaderMap(Headers headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        List<String> values = headers.values((String) key);
+        return values.isEmpty() ? null : values;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && headers.get((String) key) != null;
+    }
+
+    @Override
+    public int size() {
+        return headers.names().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return headers.size() == 0;
+    }
+
+    @Override
+    public synchronized Set<Map.Entry<String, List<String>>> entrySet() {
+        if (entries == null) {
+            Map<String, List<String>> materialised = new LinkedHashMap<>();
+            for (String name : headers.names()) {
+                materialised.put(name, headers.values(name));
+            }
+            entries = Collections.unmodifiableMap(materialised).entrySet();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,266 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Priority scheduler for all network work in the app.
+ * <p>
+ * Work is submitted to one of three lanes, each with its own concurrency cap. Queued work is started
+ * strictly in lane order, foreground work has capacity reserved for it that the other lanes cannot
+ * use, and background work does not start while anything more urgent is waiting. A click therefore
+ * never sits behind a screenful of thumbnail downloads.
+ * <p>
+ * The lane of the running task is also visible to the HTTP layer through {@link #currentLane()}, so the
+ * per-host rate and concurrency limits serve foreground requests first as well.
+ */
+public class NetworkScheduler {
+
+    public enum Lane {
+        /** Work the user is actively waiting on, e.g. resolving the video that was just clicked */
+        FOREGROUND(4),
+        /** Results of a user action that are shown progressively, e.g. search and browse pages */
+        INTERACTIVE(4),
+        /** Speculative or cosmetic work: prefetching, thumbnails */
+        BACKGROUND(3);
+
+        private final int defaultCap;
+
+        Lane(int defaultCap) {
+            this.defaultCap = defaultCap;
+        }
+    }
+
+    /** Interactive and background work together never take more than this many workers */
+    private static final int MAX_SHARED_RUNNING = 5;
+
+    private static volatile NetworkScheduler instance;
+
+    /** Task running on the current worker thread */
+    private static final ThreadLocal<Task<?>> CURRENT_TASK = new ThreadLocal<>();
+
+    private final IoExecutor executor;
+    private final int[] caps = new int[Lane.values().length];
+    private final int[] running = new int[Lane.values().length];
+    private final List<Deque<Task<?>>> queues = new ArrayList<>();
+
+    public NetworkScheduler() {
+        int totalThreads = 0;
+        for (Lane lane : Lane.values()) {
+            caps[lane.ordinal()] = lane.defaultCap;
+            queues.add(new ArrayDeque<>());
+            totalThreads += lane.defaultCap;
+        }
+        this.executor = new IoExecutor("network", totalThreads);
+    }
+
+    public static NetworkScheduler getInstance() {
+        if (instance == null) {
+            synchronized (NetworkScheduler.class) {
+                if (instance == null) {
+                    instance = new NetworkScheduler();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Queue blocking work on a lane. Cancelling the returned task removes it from the queue, or aborts it
+     * (including its HTTP call) if it already started.
+     */
+    public <T> Task<T> submit(Lane lane, Callable<T> callable) {
+        Task<T> task = new Task<>(this, lane, callable);
+        synchronized (this) {
+            queues.get(lane.ordinal()).addLast(task);
+        }
+        dispatch();
+        return task;
+    }
+
+    /**
+     * Lane of the task running on the calling thread, or {@link Lane#INTERACTIVE} for work not started by
+     * the scheduler. Reflects promotions made while the task is running.
+     */
+    public static Lane currentLane() {
+        Task<?> task = CURRENT_TASK.get();
+        return task != null ? task.lane : Lane.INTERACTIVE;
+    }
+
+    private void dispatch() {
+        List<Task<?>> toStart = new ArrayList<>();
+        synchronized (this) {
+            for (Lane lane : Lane.values()) {
+                Deque<Task<?>> queue = queues.get(lane.ordinal());
+                while (!queue.isEmpty() && canStart(lane)) {
+                    Task<?> task = queue.pollFirst();
+                    if (task.isDone()) {
+                        continue;
+                    }
+                    running[lane.ordinal()]++;
+                    task.runningLane = lane;
+                    toStart.add(task);
+                }
+            }
+        }
+        for (Task<?> task : toStart) {
+            task.start();
+        }
+    }
+
+    private boolean canStart(Lane lane) {
+        if (running[lane.ordinal()] >= caps[lane.ordinal()]) {
+            return false;
+        }
+        if (lane == Lane.FOREGROUND) {
+            return true;
+        }
+        if (running[Lane.INTERACTIVE.ordinal()] + running[Lane.BACKGROUND.ordinal()] >= MAX_SHARED_RUNNING) {
+            return false;
+        }
+        return lane != Lane.BACKGROUND
+            || (queues.get(Lane.FOREGROUND.ordinal()).isEmpty() && queues.get(Lane.INTERACTIVE.ordinal()).isEmpty());
+    }
+
+    private void onFinished(Task<?> task) {
+        synchronized (this) {
+            running[task.runningLane.ordinal()]--;
+        }
+        dispatch();
+    }
+
+    private void promote(Task<?> task, Lane lane) {
+        synchronized (this) {
+            if (lane.ordinal() >= task.lane.ordinal()) {
+                return;
+            }
+            if (task.runningLane != null) {
+                // Already running: keep its worker slot, but its remaining requests get the new priority
+                task.lane = lane;
+                return;
+            }
+            if (queues.get(task.lane.ordinal()).remove(task)) {
+                task.lane = lane;
+                queues.get(lane.ordinal()).addLast(task);
+            }
+        }
+        dispatch();
+    }
+
+    private synchronized void dequeue(Task<?> task) {
+        queues.get(task.lane.ordinal()).remove(task);
+    }
+
+    /**
+     * Change how many tasks a lane may run at once
+     */
+    public void setCap(Lane lane, int cap) {
+        synchronized (this) {
+            caps[lane.ordinal()] = Math.max(1, cap);
+        }
+        dispatch();
+    }
+
+    public synchronized int getQueuedCount(Lane lane) {
+        return queues.get(lane.ordinal()).size();
+    }
+
+    public synchronized int getRunningCount(Lane lane) {
+        return running[lane.ordinal()];
+    }
+
+    /**
+     * Future for work submitted to the scheduler
+     */
+    public static final class Task<T> extends CompletableFuture<T> {
+        private final NetworkScheduler scheduler;
+        private final Callable<T> callable;
+        private final long enqueuedNanos = System.nanoTime();
+        /** Set by whichever of the worker or an early cancellation gets there first; it frees the slot */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private volatile Lane lane;
+        private volatile Lane runningLane;
+        private volatile long startedNanos;
+        private volatile CompletableFuture<T> execution;
+
+        Task(NetworkScheduler scheduler, Lane lane, Callable<T> callable) {
+            this.scheduler = scheduler;
+            this.lane = lane;
+            this.callable = callable;
+        }
+
+        private void start() {
+            startedNanos = System.nanoTime();
+            CompletableFuture<T> started = scheduler.executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    throw new CancellationException();
+                }
+                CURRENT_TASK.set(this);
+                try {
+                    return callable.call();
+                } finally {
+                    CURRENT_TASK.remove();
+                    // Only here: a cancelled execution completes at once while the callable may still run
+                    scheduler.onFinished(this);
+                }
+            });
+            execution = started;
+            if (isCancelled()) {
+                started.cancel(true);
+            }
+            started.whenComplete((value, error) -> {
+                if (claimed.compareAndSet(false, true)) {
+                    // Cancelled before a worker picked it up, so no worker will free the slot
+                    scheduler.onFinished(this);
+                }
+                if (error != null) {
+                    completeExceptionally(error);
+                } else {
+                    complete(value);
+                }
+            });
+        }
+
+        /**
+         * Move a task to a more urgent lane, e.g. when the user clicks a video being prefetched. A queued
+         * task moves to the new lane's queue; a running one gets the new priority for its HTTP requests.
+         */
+        public void promote(Lane target) {
+            scheduler.promote(this, target);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                CompletableFuture<T> started = execution;
+                if (started != null) {
+                    started.cancel(true);
+                } else {
+                    scheduler.dequeue(this);
+                }
+            }
+            return cancelled;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * Time spent waiting in the queue, or so far if the task has not started
+         */
+        public long getQueueWaitMillis() {
+            long end = startedNanos != 0 ? startedNanos : System.nanoTime();
+            return TimeUnit.NANOSECONDS.toMillis(end - enqueuedNanos);
+        }
+    }
+}
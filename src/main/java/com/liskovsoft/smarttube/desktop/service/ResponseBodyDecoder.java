@@ -0,0 +1,139 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Streams a response body straight into text with bounded size.
+ * <p>
+ * {@code ResponseBody.string()} first materialises the whole body as a byte array and then decodes it,
+ * so a several hundred KB watch page exists twice before the final String is built. Here bytes are
+ * decoded chunk by chunk into a pooled char buffer that is reused across requests, leaving the
+ * resulting String as the only per-request copy of the body. The pool is shared rather than per thread
+ * because {@link IoExecutor} runs every task on a fresh virtual thread on JDK 21+.
+ */
+final class ResponseBodyDecoder {
+
+    private static final int BYTE_CHUNK_SIZE = 16 * 1024;
+    private static final int INITIAL_CHAR_CAPACITY = 64 * 1024;
+
+    /** Larger buffers are dropped after use so one huge page doesn't pin memory in the pool */
+    private static final int MAX_RETAINED_CHAR_CAPACITY = 2 * 1024 * 1024;
+
+    /** Enough for the usual number of concurrent extractions; extra callers allocate and drop their own */
+    private static final int POOLED_BUFFERS = 8;
+
+    private static final ArrayBlockingQueue<Buffers> BUFFERS = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+    private final long maxBodyBytes;
+
+    ResponseBodyDecoder(long maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    String decode(ResponseBody body) throws IOException {
+        long contentLength = body.contentLength();
+        if (contentLength > maxBodyBytes) {
+            throw new IOException("Response body too large: " + contentLength + " bytes (limit " + maxBodyBytes + ")");
+        }
+
+        MediaType contentType = body.contentType();
+        Charset charset = contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        Buffers buffers = BUFFERS.poll();
+        if (buffers == null) {
+            buffers = new Buffers();
+        }
+        ByteBuffer in = buffers.bytes;
+        in.clear();
+        CharBuffer out = buffers.charsFor(contentLength);
+
+        long totalBytes = 0;
+        String text;
+        try (InputStream stream = body.byteStream()) {
+            int read;
+            while ((read = stream.read(in.array(), in.arrayOffset() + in.position(), in.remaining())) != -1) {
+                totalBytes += read;
+                if (totalBytes > maxBodyBytes) {
+                    throw new IOException("Response body exceeded limit of " + maxBodyBytes + " bytes");
+                }
+                in.position(in.position() + read);
+                in.flip();
+                out = decodeChunk(decoder, in, out, false);
+                in.compact();
+            }
+            in.flip();
+            out = decodeChunk(decoder, in, out, true);
+            out = flush(decoder, out);
+
+            out.flip();
+            if (out.hasRemaining() && out.get(out.position()) == '\uFEFF') {
+                out.position(out.position() + 1);
+            }
+            text = out.toString();
+        } finally {
+            in.clear();
+            buffers.retain(out);
+            BUFFERS.offer(buffers);
+        }
+        return text;
+    }
+
+    private static CharBuffer decodeChunk(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, boolean endOfInput) {
+        while (true) {
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            if (result.isOverflow()) {
+                out = grow(out);
+            } else {
+                return out;
+            }
+        }
+    }
+
+    private static CharBuffer flush(CharsetDecoder decoder, CharBuffer out) {
+        while (decoder.flush(out).isOverflow()) {
+            out = grow(out);
+        }
+        return out;
+    }
+
+    private static CharBuffer grow(CharBuffer out) {
+        CharBuffer larger = CharBuffer.allocate(out.capacity() * 2);
+        out.flip();
+        larger.put(out);
+        return larger;
+    }
+
+    private static final class Buffers {
+        final ByteBuffer bytes = ByteBuffer.allocate(BYTE_CHUNK_SIZE);
+        CharBuffer chars = CharBuffer.allocate(INITIAL_CHAR_CAPACITY);
+
+        CharBuffer charsFor(long contentLength) {
+            // For the common UTF-8 case the char count never exceeds the byte count
+            if (contentLength > chars.capacity() && contentLength <= Integer.MAX_VALUE) {
+                chars = CharBuffer.allocate((int) contentLength);
+            }
+            chars.clear();
+            return chars;
+        }
+
+        void retain(CharBuffer used) {
+            used.clear();
+            chars = used.capacity() <= MAX_RETAINED_CHAR_CAPACITY ? used : CharBuffer.allocate(INITIAL_CHAR_CAPACITY);
+        }
+    }
+}
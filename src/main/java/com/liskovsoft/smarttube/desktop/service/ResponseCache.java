@@ -0,0 +1,311 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import org.schabi.newpipe.extractor.downloader.Request;
+import org.schabi.newpipe.extractor.downloader.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of extractor responses with HTTP freshness and conditional revalidation.
+ * <p>
+ * OkHttp's built-in cache only handles GET, while most YouTube API traffic is POST, so responses are
+ * keyed on method, URL and request body instead. Freshness comes from {@link CachePolicy} when the
+ * service layer sets one, otherwise from the response's {@code Cache-Control: max-age}.
+ */
+public class ResponseCache {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+
+    private final DiskLruStore store;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+
+    public ResponseCache() {
+        this(new DiskLruStore(DiskLruStore.cacheDirectory("http"),
+            Long.getLong("smarttube.http.cacheMaxBytes", DEFAULT_MAX_BYTES)));
+    }
+
+    public ResponseCache(DiskLruStore store) {
+        this.store = store;
+    }
+
+    public static String keyFor(Request request) {
+        StringBuilder key = new StringBuilder()
+            .append(request.httpMethod()).append(' ')
+            .append(request.url());
+        if (request.dataToSend() != null) {
+            key.append(' ').append(Base64.getEncoder().encodeToString(request.dataToSend()));
+        }
+        return DiskLruStore.hashKey(key.toString());
+    }
+
+    /**
+     * Stored entry for a key regardless of freshness, or null
+     */
+    public Entry get(String key) {
+        byte[] data = store.get(key);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return Entry.decode(data);
+        } catch (IOException e) {
+            store.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Store a response if its status and cache headers allow it
+     */
+    public void put(String key, Response response, Duration policyMaxAge) {
+        if (response.responseCode() != 200) {
+            return;
+        }
+
+        CacheControl cacheControl = CacheControl.parse(response.getHeader("Cache-Control"));
+        Entry entry = new Entry(System.currentTimeMillis(), response.responseCode(), response.responseMessage(),
+            response.latestUrl(), cacheControl.maxAgeSeconds, cacheControl.noCache,
+            response.responseHeaders(), response.responseBody());
+
+        if (policyMaxAge == null) {
+            if (cacheControl.noStore) {
+                return;
+            }
+            if (cacheControl.maxAgeSeconds <= 0 && !entry.hasValidators()) {
+                return;
+            }
+        }
+
+        store.put(key, entry.encode());
+    }
+
+    /**
+     * Re-stamp an entry after a 304 so it counts as fresh again
+     */
+    public void refresh(String key, Entry entry) {
+        store.put(key, entry.withStoredAt(System.currentTimeMillis()).encode());
+    }
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * Share of lookups answered without transferring a body (fresh hits plus 304 revalidations)
+     */
+    public double getHitRatio() {
+        long served = hits.get() + revalidations.get();
+        long total = served + misses.get();
+        return total == 0 ? 0.0 : (double) served / total;
+    }
+
+    public DiskLruStore getStore() {
+        return store;
+    }
+
+    /**
+     * Cached response plus the metadata needed to judge freshness
+     */
+    public static final class Entry {
+        private final long storedAt;
+        private final int code;
+        private final String message;
+        private final String url;
+        private final long maxAgeSeconds;
+        private final boolean noCache;
+        private final Map<String, List<String>> headers;
+        private final String body;
+
+        Entry(long storedAt, int code, String message, String url, long maxAgeSeconds, boolean noCache,
+              Map<String, List<String>> headers, String body) {
+            this.storedAt = storedAt;
+            this.code = code;
+            this.message = message != null ? message : "";
+            this.url = url != null ? url : "";
+            this.maxAgeSeconds = maxAgeSeconds;
+            this.noCache = noCache;
+            this.headers = headers;
+            this.body = body != null ? body : "";
+        }
+
+        public boolean isFresh(Duration policyMaxAge, long now) {
+            long age = now - storedAt;
+            if (policyMaxAge != null) {
+                return age <= policyMaxAge.toMillis();
+            }
+            return !noCache && maxAgeSeconds > 0 && age <= maxAgeSeconds * 1000;
+        }
+
+        public boolean hasValidators() {
+            return getETag() != null || getLastModified() != null;
+        }
+
+        public String getETag() {
+            return firstHeader("ETag");
+        }
+
+        public String getLastModified() {
+            return firstHeader("Last-Modified");
+        }
+
+        private String firstHeader(String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey() != null && header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                    return header.getValue().get(0);
+                }
+            }
+            return null;
+        }
+
+        public Response toResponse() {
+            return new Response(code, message, headers, body, url);
+        }
+
+        Entry withStoredAt(long newStoredAt) {
+            return new Entry(newStoredAt, code, message, url, maxAgeSeconds, noCache, headers, body);
+        }
+
+        byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length() + 512);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(storedAt);
+                out.writeInt(code);
+                writeString(out, message);
+                writeString(out, url);
+                out.writeLong(maxAgeSeconds);
+                out.writeBoolean(noCache);
+
+                out.writeInt(headers.size());
+                for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                    writeString(out, header.getKey() != null ? header.getKey() : "");
+                    out.writeInt(header.getValue().size());
+                    for (String value : header.getValue()) {
+                        writeString(out, value);
+                    }
+                }
+
+                writeString(out, body);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error encoding cache entry", e);
+            }
+            return bytes.toByteArray();
+        }
+
+        static Entry decode(byte[] data) throws IOException {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                if (in.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Unsupported cache entry version");
+                }
+                long storedAt = in.readLong();
+                int code = in.readInt();
+                String message = readString(in);
+                String url = readString(in);
+                long maxAgeSeconds = in.readLong();
+                boolean noCache = in.readBoolean();
+
+                int headerCount = in.readInt();
+                Map<String, List<String>> headers = new LinkedHashMap<>(headerCount * 2);
+                for (int i = 0; i < headerCount; i++) {
+                    String name = readString(in);
+                    int valueCount = in.readInt();
+                    List<String> values = new ArrayList<>(valueCount);
+                    for (int j = 0; j < valueCount; j++) {
+                        values.add(readString(in));
+                    }
+                    headers.put(name, values);
+                }
+
+                String body = readString(in);
+                return new Entry(storedAt, code, message, url, maxAgeSeconds, noCache, headers, body);
+            }
+        }
+
+        /**
+         * Length-prefixed UTF-8; unlike {@code writeUTF} not limited to 64 KB, which long header values
+         * and URLs can exceed
+         */
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Corrupt cache entry");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The subset of Cache-Control directives the cache acts on
+     */
+    static final class CacheControl {
+        long maxAgeSeconds = -1;
+        boolean noCache;
+        boolean noStore;
+
+        static CacheControl parse(String header) {
+            CacheControl result = new CacheControl();
+            if (header == null) {
+                return result;
+            }
+            for (String directive : header.split(",")) {
+                String value = directive.trim().toLowerCase();
+                if (value.equals("no-cache")) {
+                    result.noCache = true;
+                } else if (value.equals("no-store")) {
+                    result.noStore = true;
+                } else if (value.startsWith("max-age=")) {
+                    try {
+                        result.maxAgeSeconds = Long.parseLong(value.substring("max-age=".length()).trim());
+                    } catch (NumberFormatException ignored) {
+                        // Treat malformed max-age as absent
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
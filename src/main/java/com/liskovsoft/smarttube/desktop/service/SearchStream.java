@@ -0,0 +1,115 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import com.liskovsoft.smarttube.desktop.model.VideoGroup;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Incremental search that emits result pages as they arrive.
+ * <p>
+ * {@link #start()} fetches the first page. The UI calls {@link #onNearEnd()} when the user scrolls
+ * close to the end of what is shown; that fetches the next page in the background so it is usually
+ * already appended by the time the list boundary is reached. Callbacks run on a network thread.
+ */
+public class SearchStream {
+
+    private final YouTubeService service;
+    private final String query;
+    private final Consumer<VideoGroup> onPage;
+    private final Consumer<Throwable> onError;
+
+    private String nextPageKey;
+    private boolean started;
+    private boolean cancelled;
+    private CompletableFuture<VideoGroup> loading;
+    private int pagesLoaded;
+
+    SearchStream(YouTubeService service, String query, Consumer<VideoGroup> onPage, Consumer<Throwable> onError) {
+        this.service = service;
+        this.query = query;
+        this.onPage = onPage;
+        this.onError = onError;
+    }
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        load(null);
+    }
+
+    /**
+     * Prefetch the next page unless one is already loading or the results are exhausted
+     */
+    public synchronized void onNearEnd() {
+        if (started && !cancelled && loading == null && nextPageKey != null) {
+            load(nextPageKey);
+        }
+    }
+
+    private void load(String pageKey) {
+        CompletableFuture<VideoGroup> page = service.searchVideosPage(query, pageKey);
+        loading = page;
+        page.whenComplete((group, error) -> onLoaded(page, group, error));
+    }
+
+    private void onLoaded(CompletableFuture<VideoGroup> page, VideoGroup group, Throwable error) {
+        synchronized (this) {
+            if (loading == page) {
+                loading = null;
+            }
+            if (cancelled) {
+                return;
+            }
+            if (error == null) {
+                nextPageKey = group.getNextPageKey();
+                pagesLoaded++;
+            }
+        }
+
+        if (error == null) {
+            onPage.accept(group);
+        } else if (!(unwrap(error) instanceof CancellationException)) {
+            onError.accept(unwrap(error));
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Stop emitting pages and abort any page fetch in flight
+     */
+    public void cancel() {
+        CompletableFuture<VideoGroup> inFlight;
+        synchronized (this) {
+            cancelled = true;
+            inFlight = loading;
+            loading = null;
+        }
+        if (inFlight != null) {
+            inFlight.cancel(true);
+        }
+    }
+
+    public synchronized boolean hasMore() {
+        return !started || nextPageKey != null || loading != null;
+    }
+
+    public synchronized boolean isLoading() {
+        return loading != null;
+    }
+
+    public synchronized int getPagesLoaded() {
+        return pagesLoaded;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+}
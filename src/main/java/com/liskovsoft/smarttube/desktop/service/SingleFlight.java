@@ -0,0 +1,106 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key into one in-flight operation.
+ * <p>
+ * The first caller for a key starts the load; callers arriving before it completes share its result.
+ * Each caller receives its own dependent future, so cancelling one caller's future does not affect
+ * the others. The load itself is cancelled once every caller waiting on it has cancelled.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+        Flight<V> flight = new Flight<>();
+        while (true) {
+            Flight<V> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                break;
+            }
+            CompletableFuture<V> joined = existing.join();
+            if (joined != null) {
+                coalescedCount.incrementAndGet();
+                return joined;
+            }
+            // Every previous caller gave up and the load is being cancelled; start a fresh one
+            inFlight.remove(key, existing);
+        }
+
+        CompletableFuture<V> caller = flight.join();
+        try {
+            CompletableFuture<V> source = loader.get();
+            flight.setSource(source);
+            source.whenComplete((value, error) -> {
+                inFlight.remove(key, flight);
+                if (error != null) {
+                    flight.shared.completeExceptionally(error);
+                } else {
+                    flight.shared.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.shared.completeExceptionally(e);
+        }
+        return caller;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Number of calls that joined an existing load instead of starting their own
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private static final class Flight<V> {
+        final CompletableFuture<V> shared = new CompletableFuture<>();
+        private CompletableFuture<V> source;
+        private int waiters;
+        private boolean abandoned;
+
+        /**
+         * A new dependent future for a caller, or null if the load has been abandoned
+         */
+        synchronized CompletableFuture<V> join() {
+            if (abandoned) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<V> caller = shared.copy();
+            caller.whenComplete((value, error) -> {
+                if (caller.isCancelled()) {
+                    leave();
+                }
+            });
+            return caller;
+        }
+
+        synchronized void setSource(CompletableFuture<V> source) {
+            this.source = source;
+            if (abandoned) {
+                source.cancel(true);
+            }
+        }
+
+        private synchronized void leave() {
+            waiters--;
+            if (waiters == 0 && !shared.isDone()) {
+                abandoned = true;
+                if (source != null) {
+                    source.cancel(true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Speculatively resolves stream details for videos the user is likely to open next.
+ * <p>
+ * Results land in the service's video details cache, and a click arriving while a prefetch is running
+ * joins it through request coalescing, so click-to-play skips most of the extraction. Prefetching is
+ * budgeted (concurrent and per-minute caps). No new prefetch starts while a foreground lookup is in flight,
+ * and those already running use the background lane, so their requests are served after the click's.
+ * Waiting prefetches resume when the last foreground lookup finishes or the rate window frees a slot.
+ */
+public class StreamPrefetcher {
+
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final ScheduledExecutorService RESUME_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stream-prefetch-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final YouTubeService service;
+    private final int maxConcurrent;
+    private final int maxPerMinute;
+
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final Deque<Long> recentStarts = new ArrayDeque<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private boolean resumeScheduled;
+    private boolean waitingForForeground;
+
+    public StreamPrefetcher(YouTubeService service, int maxConcurrent, int maxPerMinute) {
+        this.service = service;
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerMinute = maxPerMinute;
+    }
+
+    /**
+     * Queue a video for prefetching. Later requests for the same id are ignored while it is queued.
+     */
+    public void prefetch(String videoId) {
+        if (videoId == null || service.isVideoDetailsCached(videoId)) {
+            return;
+        }
+        synchronized (this) {
+            pending.add(videoId);
+        }
+        drain();
+    }
+
+    /**
+     * Drop queued prefetches, e.g. when a new result list replaces the old one
+     */
+    public synchronized void clear() {
+        pending.clear();
+    }
+
+    /**
+     * Start queued prefetches while the budget and foreground activity allow
+     */
+    public void drain() {
+        while (true) {
+            String videoId;
+            CompletableFuture<Void> foregroundIdle;
+            synchronized (this) {
+                if (pending.isEmpty() || running.get() >= maxConcurrent) {
+                    return;
+                }
+                if (service.getForegroundLookupCount() > 0) {
+                    // Yield to the click; resume once it is done
+                    if (waitingForForeground) {
+                        return;
+                    }
+                    waitingForForeground = true;
+                    foregroundIdle = service.whenForegroundIdle();
+                    videoId = null;
+                } else {
+                    long budgetWaitNanos = nanosUntilRateBudget();
+                    if (budgetWaitNanos > 0) {
+                        scheduleResume(budgetWaitNanos);
+                        return;
+                    }
+                    foregroundIdle = null;
+                    videoId = pending.iterator().next();
+                    pending.remove(videoId);
+                    recentStarts.addLast(System.nanoTime());
+                    running.incrementAndGet();
+                }
+            }
+            if (foregroundIdle != null) {
+                // Async so an already completed future does not re-enter drain() on this thread
+                foregroundIdle.thenRunAsync(() -> {
+                    synchronized (this) {
+                        waitingForForeground = false;
+                    }
+                    drain();
+                }, RESUME_SCHEDULER);
+                return;
+            }
+
+            if (service.isVideoDetailsCached(videoId)) {
+                running.decrementAndGet();
+                continue;
+            }
+
+            service.prefetchVideoDetails(videoId).whenComplete((video, error) -> {
+                running.decrementAndGet();
+                drain();
+            });
+        }
+    }
+
+    /**
+     * Drain again once the oldest start in the rate window has aged out
+     */
+    private void scheduleResume(long delayNanos) {
+        if (!resumeScheduled) {
+            resumeScheduled = true;
+            RESUME_SCHEDULER.schedule(() -> {
+                synchronized (this) {
+                    resumeScheduled = false;
+                }
+                drain();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 0 if another prefetch may start now, otherwise how long until one may
+     */
+    private long nanosUntilRateBudget() {
+        long now = System.nanoTime();
+        while (!recentStarts.isEmpty() && now - recentStarts.peekFirst() > WINDOW_NANOS) {
+            recentStarts.removeFirst();
+        }
+        if (recentStarts.size() < maxPerMinute) {
+            return 0;
+        }
+        return Math.max(1, recentStarts.peekFirst() + WINDOW_NANOS - now);
+    }
+
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+}
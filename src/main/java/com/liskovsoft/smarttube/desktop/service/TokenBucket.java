@@ -0,0 +1,94 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the request rate to a single host.
+ * <p>
+ * Besides the steady refill rate, the bucket can be paused until a point in time so a server's
+ * {@code Retry-After} is honoured by every caller, not only the one that received the 429.
+ * <p>
+ * Urgent callers may borrow against future refills, which queues them in arrival order. Background
+ * callers never borrow: they wait until a token is actually free, so they cannot build up a debt that
+ * a later click has to wait out.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+
+    public TokenBucket(double capacity, double refillPerSecond) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Block until a token is available
+     *
+     * @param mayBorrow false for background work, which waits for a free token instead of queueing
+     *                  ahead of later callers
+     */
+    public void acquire(boolean mayBorrow) throws InterruptedException {
+        if (mayBorrow) {
+            long waitNanos = reserve();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            return;
+        }
+        long waitNanos;
+        while ((waitNanos = tryTake()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Take a token, possibly going into debt, and return how long the caller must wait before using it
+     */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        refill(now);
+
+        long pauseWait = Math.max(0, pausedUntilNanos - now);
+        tokens -= 1;
+        long refillWait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens / refillPerNano);
+        return Math.max(pauseWait, refillWait);
+    }
+
+    /**
+     * Take a token if one is free now; otherwise return how long until one may be
+     */
+    synchronized long tryTake() {
+        long now = System.nanoTime();
+        refill(now);
+
+        long pauseWait = pausedUntilNanos - now;
+        if (pauseWait > 0) {
+            return pauseWait;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / refillPerNano));
+    }
+
+    /**
+     * Hold all callers back until {@code delayMillis} from now
+     */
+    public synchronized void pauseFor(long delayMillis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        pausedUntilNanos = Math.max(pausedUntilNanos, until);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * refillPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,114 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import com.liskovsoft.smarttube.desktop.model.Video;
+import com.liskovsoft.smarttube.desktop.model.VideoFormat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory cache of fully resolved videos, including their formats.
+ * <p>
+ * Stream URLs are signed with an {@code expire} timestamp, so an entry lives until the earliest
+ * expiry among its URLs (minus a safety margin) rather than for a fixed time. The cache holds at most
+ * {@code maxEntries} videos and evicts the least recently used.
+ */
+public class VideoDetailsCache {
+
+    private static final Pattern EXPIRE_PARAM = Pattern.compile("[?&]expire=(\\d+)");
+
+    /** Leave time to actually start playback before the URL stops working */
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /** Used when no URL carries an expiry, e.g. for live streams */
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public VideoDetailsCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(maxEntries * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > VideoDetailsCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * A still-valid cached video, or null
+     */
+    public synchronized Video get(String videoId) {
+        Entry entry = entries.get(videoId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiresAtMillis) {
+            entries.remove(videoId);
+            return null;
+        }
+        return entry.video;
+    }
+
+    public void put(Video video) {
+        if (video == null || video.getId() == null) {
+            return;
+        }
+        long expiresAt = computeExpiry(video, System.currentTimeMillis());
+        synchronized (this) {
+            entries.put(video.getId(), new Entry(video, expiresAt));
+        }
+    }
+
+    public synchronized void invalidate(String videoId) {
+        entries.remove(videoId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    static long computeExpiry(Video video, long now) {
+        long earliest = Long.MAX_VALUE;
+        if (video.getFormats() != null) {
+            for (VideoFormat format : video.getFormats()) {
+                earliest = Math.min(earliest, parseExpireMillis(format.getUrl()));
+            }
+        }
+        earliest = Math.min(earliest, parseExpireMillis(video.getStreamUrl()));
+
+        if (earliest == Long.MAX_VALUE) {
+            return now + DEFAULT_TTL_MILLIS;
+        }
+        return earliest - EXPIRY_MARGIN_MILLIS;
+    }
+
+    private static long parseExpireMillis(String url) {
+        if (url == null) {
+            return Long.MAX_VALUE;
+        }
+        Matcher matcher = EXPIRE_PARAM.matcher(url);
+        if (!matcher.find()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1)));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static final class Entry {
+        final Video video;
+        final long expiresAtMillis;
+
+        Entry(Video video, long expiresAtMillis) {
+            this.video = video;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
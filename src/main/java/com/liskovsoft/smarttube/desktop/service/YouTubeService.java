@@ -1,11 +1,18 @@
 package com.liskovsoft.smarttube.desktop.service;
 
+import com.liskovsoft.smarttube.desktop.model.FormatIndex;
+import com.liskovsoft.smarttube.desktop.model.Thumbnail;
 import com.liskovsoft.smarttube.desktop.model.Video;
 import com.liskovsoft.smarttube.desktop.model.VideoFormat;
+import com.liskovsoft.smarttube.desktop.model.VideoGroup;
+import org.schabi.newpipe.extractor.Image;
 import org.schabi.newpipe.extractor.InfoItem;
+import org.schabi.newpipe.extractor.ListExtractor;
 import org.schabi.newpipe.extractor.NewPipe;
+import org.schabi.newpipe.extractor.Page;
 import org.schabi.newpipe.extractor.ServiceList;
 import org.schabi.newpipe.extractor.search.SearchExtractor;
+import org.schabi.newpipe.extractor.services.youtube.ItagItem;
 import org.schabi.newpipe.extractor.stream.StreamExtractor;
 import org.schabi.newpipe.extractor.stream.StreamInfo;
 import org.schabi.newpipe.extractor.stream.StreamInfoItem;
@@ -15,62 +22,220 @@ import org.schabi.newpipe.extractor.stream.AudioStream;
 import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Service for interacting with YouTube using NewPipe extractor
  */
 public class YouTubeService {
     
+    /** How long search result pages are served from the response cache */
+    private static final Duration SEARCH_MAX_AGE = Duration.ofMinutes(5);
+    
+    /** Height of the stream picked for {@link Video#getStreamUrl()} */
+    private static final int DEFAULT_MAX_HEIGHT = 720;
+    
+    /** Blocking extraction work runs on the shared network lanes rather than on the common ForkJoinPool */
+    private static final NetworkScheduler SCHEDULER = NetworkScheduler.getInstance();
+    
+    /** Resolved videos, reused until their stream URLs are about to expire */
+    private static final VideoDetailsCache VIDEO_DETAILS_CACHE = new VideoDetailsCache(100);
+    
+    /** Continuations of recent searches, keyed by the next page key handed out in a VideoGroup */
+    private static final Map<String, SearchCursor> SEARCH_CURSORS = new LinkedHashMap<String, SearchCursor>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SearchCursor> eldest) {
+            return size() > 50;
+        }
+    };
+    
+    /** Concurrent detail lookups for the same video share one extraction */
+    private static final SingleFlight<String, Video> VIDEO_DETAILS_FLIGHTS = new SingleFlight<>();
+    
+    /** Detail extractions that are queued or running, so a click can promote a queued prefetch */
+    private static final Map<String, NetworkScheduler.Task<Video>> VIDEO_DETAILS_TASKS = new ConcurrentHashMap<>();
+    
+    private static final AtomicInteger FOREGROUND_LOOKUPS = new AtomicInteger();
+    /** Completes when the last foreground lookup in flight finishes; guarded by FOREGROUND_LOOKUPS */
+    private static CompletableFuture<Void> foregroundIdle = CompletableFuture.completedFuture(null);
+    
     static {
         // Initialize NewPipe
-        NewPipe.init(new DownloaderImpl());
+        NewPipe.init(DownloaderImpl.getInstance());
     }
     
     /**
-     * Search for videos on YouTube
+     * Listen for rate limiting state changes of any YouTube host.
+     * Called on a network thread; UI listeners must hop to the FX thread themselves.
+     *
+     * @return removes the listener; the limiter is shared, so call it when the listener's owner goes away
+     */
+    public Runnable addRateLimitListener(BiConsumer<String, CircuitBreaker.State> listener) {
+        return DownloaderImpl.getInstance().getRateLimiter().addStateListener(listener);
+    }
+    
+    /**
+     * Search for videos on YouTube. Cancelling the returned future aborts the request in flight.
      */
     public CompletableFuture<List<Video>> searchVideos(String query, int maxResults) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                SearchExtractor searchExtractor = ServiceList.YouTube.getSearchExtractor(query);
-                searchExtractor.fetchPage();
-                
-                List<Video> videos = new ArrayList<>();
-                List<InfoItem> items = searchExtractor.getInitialPage().getItems();
-                
-                int count = 0;
-                for (InfoItem item : items) {
-                    if (count >= maxResults) break;
-                    
-                    if (item instanceof StreamInfoItem) {
-                        try {
-                            Video video = convertStreamInfoItemToVideo((StreamInfoItem) item);
-                            if (video != null) {
-                                videos.add(video);
-                                count++;
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Error converting video item: " + e.getMessage());
-                        }
+        return SCHEDULER.submit(NetworkScheduler.Lane.INTERACTIVE, () -> {
+            List<Video> videos = loadSearchPage(query, null).getVideos();
+            return videos.size() > maxResults ? new ArrayList<>(videos.subList(0, maxResults)) : videos;
+        });
+    }
+    
+    /**
+     * Fetch one page of search results.
+     *
+     * @param pageKey null for the first page, otherwise the {@link VideoGroup#getNextPageKey()} of the previous page
+     * @return the page, whose next page key is null when there are no more results
+     */
+    public CompletableFuture<VideoGroup> searchVideosPage(String query, String pageKey) {
+        return SCHEDULER.submit(NetworkScheduler.Lane.INTERACTIVE, () -> loadSearchPage(query, pageKey));
+    }
+    
+    /**
+     * Stream search results page by page; see {@link SearchStream}
+     */
+    public SearchStream streamSearch(String query, Consumer<VideoGroup> onPage, Consumer<Throwable> onError) {
+        return new SearchStream(this, query, onPage, onError);
+    }
+    
+    private VideoGroup loadSearchPage(String query, String pageKey) {
+        try {
+            SearchExtractor searchExtractor;
+            ListExtractor.InfoItemsPage<InfoItem> page;
+            
+            if (pageKey == null) {
+                searchExtractor = ServiceList.YouTube.getSearchExtractor(query);
+                CachePolicy.withMaxAge(SEARCH_MAX_AGE, () -> {
+                    searchExtractor.fetchPage();
+                    return null;
+                });
+                page = searchExtractor.getInitialPage();
+            } else {
+                SearchCursor cursor;
+                synchronized (SEARCH_CURSORS) {
+                    cursor = SEARCH_CURSORS.get(pageKey);
+                }
+                if (cursor == null || !cursor.query.equals(query)) {
+                    throw new IllegalArgumentException("Unknown or expired page key");
+                }
+                searchExtractor = cursor.extractor;
+                page = CachePolicy.withMaxAge(SEARCH_MAX_AGE, () -> searchExtractor.getPage(cursor.page));
+            }
+            
+            VideoGroup group = new VideoGroup(query);
+            for (InfoItem item : page.getItems()) {
+                if (item instanceof StreamInfoItem) {
+                    try {
+                        group.addVideo(convertStreamInfoItemToVideo((StreamInfoItem) item));
+                    } catch (Exception e) {
+                        System.err.println("Error converting video item: " + e.getMessage());
                     }
                 }
-                
-                return videos;
-                
-            } catch (Exception e) {
-                throw new RuntimeException("Error searching videos: " + e.getMessage(), e);
             }
-        });
+            
+            if (page.hasNextPage()) {
+                String nextPageKey = UUID.randomUUID().toString();
+                synchronized (SEARCH_CURSORS) {
+                    SEARCH_CURSORS.put(nextPageKey, new SearchCursor(query, searchExtractor, page.getNextPage()));
+                }
+                group.setNextPageKey(nextPageKey);
+            }
+            
+            return group;
+            
+        } catch (Exception e) {
+            throw new RuntimeException("Error searching videos: " + e.getMessage(), e);
+        }
     }
     
     /**
-     * Get detailed video information including stream URLs
+     * Get detailed video information including stream URLs.
+     * Accepts either a video id or a YouTube watch URL.
      */
-    public CompletableFuture<Video> getVideoDetails(String videoId) {
-        return CompletableFuture.supplyAsync(() -> {
+    public CompletableFuture<Video> getVideoDetails(String videoIdOrUrl) {
+        String videoId = extractVideoId(videoIdOrUrl);
+        
+        Video cached = VIDEO_DETAILS_CACHE.get(videoId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        
+        synchronized (FOREGROUND_LOOKUPS) {
+            if (FOREGROUND_LOOKUPS.getAndIncrement() == 0) {
+                foregroundIdle = new CompletableFuture<>();
+            }
+        }
+        NetworkScheduler.Task<Video> queued = VIDEO_DETAILS_TASKS.get(videoId);
+        if (queued != null) {
+            // A prefetch of this video is queued or running in the background lane; the user wants it now
+            queued.promote(NetworkScheduler.Lane.FOREGROUND);
+        }
+        CompletableFuture<Video> result = loadVideoDetails(videoId, NetworkScheduler.Lane.FOREGROUND);
+        result.whenComplete((video, error) -> endForegroundLookup());
+        return result;
+    }
+    
+    private static void endForegroundLookup() {
+        CompletableFuture<Void> idle = null;
+        synchronized (FOREGROUND_LOOKUPS) {
+            if (FOREGROUND_LOOKUPS.decrementAndGet() == 0) {
+                idle = foregroundIdle;
+            }
+        }
+        if (idle != null) {
+            idle.complete(null);
+        }
+    }
+    
+    /**
+     * Resolve video details speculatively so a later {@link #getVideoDetails(String)} is served from cache.
+     * Not counted as foreground work and runs in the background lane.
+     */
+    public CompletableFuture<Video> prefetchVideoDetails(String videoId) {
+        Video cached = VIDEO_DETAILS_CACHE.get(videoId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return loadVideoDetails(videoId, NetworkScheduler.Lane.BACKGROUND);
+    }
+    
+    public boolean isVideoDetailsCached(String videoId) {
+        return VIDEO_DETAILS_CACHE.get(videoId) != null;
+    }
+    
+    /**
+     * Number of user-initiated detail lookups currently in flight
+     */
+    public int getForegroundLookupCount() {
+        return FOREGROUND_LOOKUPS.get();
+    }
+    
+    /**
+     * Completes once no user-initiated detail lookup is in flight; already complete if none is
+     */
+    public CompletableFuture<Void> whenForegroundIdle() {
+        synchronized (FOREGROUND_LOOKUPS) {
+            return foregroundIdle;
+        }
+    }
+    
+    private CompletableFuture<Video> loadVideoDetails(String videoId, NetworkScheduler.Lane lane) {
+        return VIDEO_DETAILS_FLIGHTS.execute(videoId, () -> fetchVideoDetails(videoId, lane));
+    }
+    
+    private CompletableFuture<Video> fetchVideoDetails(String videoId, NetworkScheduler.Lane lane) {
+        NetworkScheduler.Task<Video> task = SCHEDULER.submit(lane, () -> {
             try {
                 String videoUrl = "https://www.youtube.com/watch?v=" + videoId;
                 StreamExtractor streamExtractor = ServiceList.YouTube.getStreamExtractor(videoUrl);
@@ -96,6 +261,7 @@ public class YouTubeService {
                 // Handle thumbnails
                 if (!streamInfo.getThumbnails().isEmpty()) {
                     video.setThumbnailUrl(streamInfo.getThumbnails().get(0).getUrl());
+                    video.setThumbnails(convertThumbnails(streamInfo.getThumbnails()));
                 }
                 
                 // Get available formats
@@ -103,72 +269,157 @@ public class YouTubeService {
                 
                 // Add video streams with audio
                 for (VideoStream videoStream : streamInfo.getVideoStreams()) {
-                    VideoFormat format = new VideoFormat();
-                    format.setUrl(videoStream.getUrl());
-                    format.setQuality(videoStream.getResolution());
-                    format.setMimeType(videoStream.getFormat().getMimeType());
-                    format.setHasVideo(true);
-                    format.setVideoCodec(videoStream.getFormat().getName());
+                    VideoFormat format = convertVideoStream(videoStream);
+                    format.setHasAudio(true);
                     formats.add(format);
                 }
                 
                 // Add video-only streams
                 for (VideoStream videoStream : streamInfo.getVideoOnlyStreams()) {
-                    VideoFormat format = new VideoFormat();
-                    format.setUrl(videoStream.getUrl());
-                    format.setQuality(videoStream.getResolution());
-                    format.setMimeType(videoStream.getFormat().getMimeType());
-                    format.setHasVideo(true);
+                    VideoFormat format = convertVideoStream(videoStream);
                     format.setHasAudio(false);
-                    format.setVideoCodec(videoStream.getFormat().getName());
                     formats.add(format);
                 }
                 
                 // Add audio-only streams
                 for (AudioStream audioStream : streamInfo.getAudioStreams()) {
-                    VideoFormat format = new VideoFormat();
-                    format.setUrl(audioStream.getUrl());
-                    format.setQuality("Audio Only");
-                    format.setMimeType(audioStream.getFormat().getMimeType());
-                    format.setHasVideo(false);
-                    format.setHasAudio(true);
-                    formats.add(format);
+                    formats.add(convertAudioStream(audioStream));
                 }
                 
                 video.setFormats(formats);
                 
                 // Set best stream URL for direct playback
-                Optional<VideoStream> bestStream = streamInfo.getVideoStreams().stream()
-                    .filter(stream -> stream.getResolution().contains("720"))
-                    .findFirst();
-                
-                if (bestStream.isPresent()) {
-                    video.setStreamUrl(bestStream.get().getUrl());
-                } else if (!streamInfo.getVideoStreams().isEmpty()) {
-                    video.setStreamUrl(streamInfo.getVideoStreams().get(0).getUrl());
+                VideoFormat bestFormat = video.getFormatIndex()
+                    .bestAtOrUnderHeight(FormatIndex.Kind.COMBINED, DEFAULT_MAX_HEIGHT, "video/mp4");
+                if (bestFormat != null) {
+                    video.setStreamUrl(bestFormat.getUrl());
                 }
                 
+                VIDEO_DETAILS_CACHE.put(video);
                 return video;
                 
             } catch (Exception e) {
                 throw new RuntimeException("Error getting video details: " + e.getMessage(), e);
             }
         });
+        VIDEO_DETAILS_TASKS.put(videoId, task);
+        task.whenComplete((video, error) -> VIDEO_DETAILS_TASKS.remove(videoId, task));
+        return task;
+    }
+    
+    private static VideoFormat convertVideoStream(VideoStream videoStream) {
+        VideoFormat format = new VideoFormat();
+        format.setUrl(videoStream.getUrl());
+        format.setItag(videoStream.getItag());
+        format.setQuality(videoStream.getResolution());
+        format.setMimeType(videoStream.getFormat().getMimeType());
+        format.setHasVideo(true);
+        format.setVideoCodec(videoStream.getCodec() != null ? videoStream.getCodec() : videoStream.getFormat().getName());
+        format.setWidth(Math.max(videoStream.getWidth(), 0));
+        format.setFps(Math.max(videoStream.getFps(), 0));
+        format.setBitrate(Math.max(videoStream.getBitrate(), 0));
+        
+        // Progressive streams often lack itag metadata; the label ("720p60") still carries the height
+        int height = videoStream.getHeight();
+        format.setHeight(height > 0 ? height : FormatIndex.parseHeight(videoStream.getResolution()));
+        
+        ItagItem itagItem = videoStream.getItagItem();
+        if (itagItem != null) {
+            format.setContentLength(Math.max(itagItem.getContentLength(), 0));
+        }
+        format.setInitStart(videoStream.getInitStart());
+        format.setInitEnd(videoStream.getInitEnd());
+        format.setIndexStart(videoStream.getIndexStart());
+        format.setIndexEnd(videoStream.getIndexEnd());
+        return format;
+    }
+    
+    private static VideoFormat convertAudioStream(AudioStream audioStream) {
+        VideoFormat format = new VideoFormat();
+        format.setUrl(audioStream.getUrl());
+        format.setItag(audioStream.getItag());
+        format.setQuality("Audio Only");
+        format.setMimeType(audioStream.getFormat().getMimeType());
+        format.setHasVideo(false);
+        format.setHasAudio(true);
+        format.setAudioCodec(audioStream.getCodec());
+        
+        // Average bitrate is reported in kbit/s
+        int averageBitrate = audioStream.getAverageBitrate();
+        long bitrate = averageBitrate > 0 ? averageBitrate * 1000L : Math.max(audioStream.getBitrate(), 0);
+        format.setBitrate(bitrate);
+        format.setAudioBitrate((int) bitrate);
+        
+        ItagItem itagItem = audioStream.getItagItem();
+        if (itagItem != null) {
+            format.setContentLength(Math.max(itagItem.getContentLength(), 0));
+            format.setAudioSampleRate(Math.max(itagItem.getSampleRate(), 0));
+        }
+        format.setInitStart(audioStream.getInitStart());
+        format.setInitEnd(audioStream.getInitEnd());
+        format.setIndexStart(audioStream.getIndexStart());
+        format.setIndexEnd(audioStream.getIndexEnd());
+        return format;
     }
     
     /**
      * Get trending videos
      */
     public CompletableFuture<List<Video>> getTrendingVideos(int maxResults) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Use a popular search query as a fallback since trending might not be available
-                return searchVideos("trending", maxResults).join();
-                
-            } catch (Exception e) {
-                throw new RuntimeException("Error getting trending videos: " + e.getMessage(), e);
+        // Use a popular search query as a fallback since trending might not be available
+        return searchVideos("trending", maxResults);
+    }
+    
+    /**
+     * Where a search left off: the extractor that produced it and the continuation page
+     */
+    private static final class SearchCursor {
+        final String query;
+        final SearchExtractor extractor;
+        final Page page;
+        
+        SearchCursor(String query, SearchExtractor extractor, Page page) {
+            this.query = query;
+            this.extractor = extractor;
+            this.page = page;
+        }
+    }
+    
+    /**
+     * Extract the video id from a watch URL, short URL or bare id
+     */
+    static String extractVideoId(String videoIdOrUrl) {
+        String value = videoIdOrUrl.trim();
+        
+        int index = value.indexOf("v=");
+        if (index >= 0 && (index == 0 || value.charAt(index - 1) == '?' || value.charAt(index - 1) == '&')) {
+            value = value.substring(index + 2);
+        } else if (value.contains("youtu.be/")) {
+            value = value.substring(value.indexOf("youtu.be/") + "youtu.be/".length());
+        } else if (value.contains("/shorts/")) {
+            value = value.substring(value.indexOf("/shorts/") + "/shorts/".length());
+        }
+        
+        int end = value.length();
+        for (char separator : new char[] {'&', '?', '#', '/'}) {
+            int separatorIndex = value.indexOf(separator);
+            if (separatorIndex >= 0 && separatorIndex < end) {
+                end = separatorIndex;
             }
-        });
+        }
+        return value.substring(0, end);
+    }
+    
+    /**
+     * Keep every thumbnail variant so views can pick the one matching their size
+     */
+    private List<Thumbnail> convertThumbnails(List<Image> images) {
+        List<Thumbnail> thumbnails = new ArrayList<>(images.size());
+        for (Image image : images) {
+            // Unknown dimensions are reported as -1
+            thumbnails.add(new Thumbnail(image.getUrl(), image.getWidth(), image.getHeight()));
+        }
+        return thumbnails;
     }
     
     /**
@@ -191,6 +442,7 @@ public class YouTubeService {
             
             if (!item.getThumbnails().isEmpty()) {
                 video.setThumbnailUrl(item.getThumbnails().get(0).getUrl());
+                video.setThumbnails(convertThumbnails(item.getThumbnails()));
             }
             
             // Set YouTube URL for basic playback
@@ -208,27 +460,9 @@ public class YouTubeService {
      * Get stream URL for a specific video and quality
      */
     public CompletableFuture<String> getStreamUrl(String videoId, String quality) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Video video = getVideoDetails(videoId).join();
-                
-                if (video.getFormats() != null && !video.getFormats().isEmpty()) {
-                    // Try to find the requested quality
-                    for (VideoFormat format : video.getFormats()) {
-                        if (format.getQuality().contains(quality) && format.hasVideo() && format.hasAudio()) {
-                            return format.getUrl();
-                        }
-                    }
-                    
-                    // Fallback to first available format
-                    return video.getFormats().get(0).getUrl();
-                }
-                
-                return video.getStreamUrl();
-                
-            } catch (Exception e) {
-                throw new RuntimeException("Error getting stream URL: " + e.getMessage(), e);
-            }
+        return getVideoDetails(videoId).thenApply(video -> {
+            VideoFormat format = video.getBestFormat(quality);
+            return format != null ? format.getUrl() : video.getStreamUrl();
         });
     }
 }
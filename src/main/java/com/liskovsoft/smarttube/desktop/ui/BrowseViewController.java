@@ -2,6 +2,8 @@ package com.liskovsoft.smarttube.desktop.ui;
 
 import com.liskovsoft.smarttube.desktop.model.Video;
 import com.liskovsoft.smarttube.desktop.model.VideoGroup;
+import com.liskovsoft.smarttube.desktop.service.CircuitBreaker;
+import com.liskovsoft.smarttube.desktop.service.NetworkScheduler;
 import com.liskovsoft.smarttube.desktop.service.YouTubeService;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -16,7 +18,6 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * Controller for the main browse view - equivalent to Android's BrowseFragment
@@ -43,6 +44,7 @@ public class BrowseViewController implements Initializable {
     @FXML private StackPane contentArea;
     @FXML private ScrollPane mainScrollPane;
     @FXML private VBox videoSectionsContainer;
+    @FXML private ListView<VideoGroup> sectionList;
     
     // Status bar
     @FXML private Label statusLabel;
@@ -52,6 +54,7 @@ public class BrowseViewController implements Initializable {
     private YouTubeService youTubeService;
     private List<VideoGroup> videoSections;
     private String currentSection = "home";
+    private Runnable rateLimitSubscription;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -64,6 +67,17 @@ public class BrowseViewController implements Initializable {
         try {
             youTubeService = new YouTubeService();
             videoSections = new ArrayList<>();
+            
+            // Surface rate limiting in the status bar
+            rateLimitSubscription = youTubeService.addRateLimitListener((host, state) -> Platform.runLater(() -> {
+                if (state == CircuitBreaker.State.OPEN) {
+                    updateConnectionStatus("Rate limited - backing off");
+                } else if (state == CircuitBreaker.State.HALF_OPEN) {
+                    updateConnectionStatus("Rate limited - retrying");
+                } else {
+                    updateConnectionStatus("Connected");
+                }
+            }));
         } catch (Exception e) {
             updateStatus("Error initializing services: " + e.getMessage());
         }
@@ -73,6 +87,13 @@ public class BrowseViewController implements Initializable {
         // Setup search field
         searchField.setOnAction(e -> onSearch());
         
+        // Setup section shelves
+        sectionList.setCellFactory(list -> new VideoShelfCell(this::onVideoSelected));
+        sectionList.setFixedCellSize(VideoShelfCell.SHELF_HEIGHT);
+        sectionList.setFocusTraversable(false);
+        // Empty until the first sections arrive; keep its placeholder from covering the content pane
+        showVideoSections(false);
+        
         // Mark home as selected initially
         updateSelectedButton(homeButton);
         
@@ -173,7 +194,7 @@ public class BrowseViewController implements Initializable {
     private void loadVideoSections(String section) {
         updateStatus("Loading " + section + "...");
         
-        CompletableFuture.runAsync(() -> {
+        NetworkScheduler.getInstance().submit(NetworkScheduler.Lane.INTERACTIVE, () -> {
             try {
                 // Load video sections based on the selected category
                 List<VideoGroup> sections = loadVideoSectionsForCategory(section);
@@ -189,6 +210,7 @@ public class BrowseViewController implements Initializable {
                     updateConnectionStatus("Error");
                 });
             }
+            return null;
         });
     }
     
@@ -251,97 +273,20 @@ public class BrowseViewController implements Initializable {
     }
     
     private void displayVideoSections(List<VideoGroup> sections) {
-        videoSectionsContainer.getChildren().clear();
+        showVideoSections(true);
         
-        for (VideoGroup section : sections) {
-            try {
-                // Create section header
-                Label sectionTitle = new Label(section.getTitle());
-                sectionTitle.getStyleClass().add("section-title");
-                videoSectionsContainer.getChildren().add(sectionTitle);
-                
-                // Create horizontal video grid for this section
-                HBox videoGrid = createVideoGrid(section.getVideos());
-                videoSectionsContainer.getChildren().add(videoGrid);
-                
-            } catch (Exception e) {
-                System.err.println("Error displaying section " + section.getTitle() + ": " + e.getMessage());
-            }
-        }
+        // Shelves and cards are recycled list cells, so only the visible ones are built
+        sectionList.getItems().setAll(sections);
+        sectionList.scrollTo(0);
     }
     
-    private HBox createVideoGrid(List<Video> videos) {
-        HBox grid = new HBox(10.0);
-        grid.getStyleClass().add("video-grid");
-        
-        for (Video video : videos) {
-            try {
-                VBox videoCard = createVideoCard(video);
-                grid.getChildren().add(videoCard);
-            } catch (Exception e) {
-                System.err.println("Error creating video card: " + e.getMessage());
-            }
-        }
-        
-        return grid;
+    private void showVideoSections(boolean show) {
+        sectionList.setVisible(show);
+        sectionList.setManaged(show);
+        mainScrollPane.setVisible(!show);
+        mainScrollPane.setManaged(!show);
     }
     
-    private VBox createVideoCard(Video video) {
-        VBox card = new VBox(5.0);
-        card.getStyleClass().add("video-card");
-        card.setMaxWidth(280.0);
-        card.setMinWidth(280.0);
-        
-        // Thumbnail placeholder
-        Region thumbnail = new Region();
-        thumbnail.getStyleClass().add("video-thumbnail");
-        thumbnail.setPrefSize(280.0, 157.0); // 16:9 aspect ratio
-        
-        // Video title
-        Label title = new Label(video.getTitle());
-        title.getStyleClass().add("video-title");
-        title.setWrapText(true);
-        title.setMaxHeight(40.0);
-        
-        // Channel name
-        Label channel = new Label(video.getChannelName());
-        channel.getStyleClass().add("video-channel");
-        
-        // Video info (views, duration, etc.)
-        Label info = new Label(formatVideoInfo(video));
-        info.getStyleClass().add("video-info");
-        
-        card.getChildren().addAll(thumbnail, title, channel, info);
-        
-        // Add click handler
-        card.setOnMouseClicked(e -> onVideoSelected(video));
-        
-        return card;
-    }
-    
-    private String formatVideoInfo(Video video) {
-        StringBuilder info = new StringBuilder();
-        
-        if (video.getViewCount() > 0) {
-            info.append(formatViewCount(video.getViewCount())).append(" views");
-        }
-          if (video.getDurationText() != null && !video.getDurationText().isEmpty()) {
-            if (info.length() > 0) info.append(" • ");
-            info.append(video.getDurationText());
-        }
-        
-        return info.toString();
-    }
-    
-    private String formatViewCount(long views) {
-        if (views >= 1000000) {
-            return String.format("%.1fM", views / 1000000.0);
-        } else if (views >= 1000) {
-            return String.format("%.1fK", views / 1000.0);
-        } else {
-            return String.valueOf(views);
-        }
-    }
       private void onVideoSelected(Video video) {
         updateStatus("Loading video: " + video.getTitle());
         // TODO: Open video player or navigate to video details
@@ -351,7 +296,7 @@ public class BrowseViewController implements Initializable {
     private void performSearch(String query) {
         updateStatus("Searching for: " + query);
         
-        CompletableFuture.runAsync(() -> {
+        NetworkScheduler.getInstance().submit(NetworkScheduler.Lane.INTERACTIVE, () -> {
             try {
                 // TODO: Implement actual search
                 VideoGroup searchResults = createSampleVideoGroup("Search Results for \"" + query + "\"", 15);
@@ -366,6 +311,7 @@ public class BrowseViewController implements Initializable {
                     updateStatus("Search error: " + e.getMessage());
                 });
             }
+            return null;
         });
     }
     
@@ -377,6 +323,8 @@ public class BrowseViewController implements Initializable {
             
             videoSectionsContainer.getChildren().clear();
             videoSectionsContainer.getChildren().add(settingsNode);
+            sectionList.getItems().clear();
+            showVideoSections(false);
             
             updateStatus("Settings loaded");
         } catch (IOException e) {
@@ -405,4 +353,14 @@ public class BrowseViewController implements Initializable {
         searchField.setText(query);
         onSearch();
     }
+    
+    /**
+     * Detach from shared services. Call when the view is discarded.
+     */
+    public void dispose() {
+        if (rateLimitSubscription != null) {
+            rateLimitSubscription.run();
+            rateLimitSubscription = null;
+        }
+    }
 }
@@ -1,9 +1,21 @@
 package com.liskovsoft.smarttube.desktop.ui;
 
+import com.liskovsoft.smarttube.desktop.media.HlsGateway;
+import com.liskovsoft.smarttube.desktop.media.MediaKey;
+import com.liskovsoft.smarttube.desktop.model.FormatIndex;
 import com.liskovsoft.smarttube.desktop.model.Video;
 import com.liskovsoft.smarttube.desktop.model.VideoFormat;
+import com.liskovsoft.smarttube.desktop.model.VideoGroup;
+import com.liskovsoft.smarttube.desktop.player.AdaptiveQualityController;
 import com.liskovsoft.smarttube.desktop.player.VideoPlayer;
+import com.liskovsoft.smarttube.desktop.service.CircuitBreaker;
+import com.liskovsoft.smarttube.desktop.service.SearchStream;
+import com.liskovsoft.smarttube.desktop.service.StreamPrefetcher;
 import com.liskovsoft.smarttube.desktop.service.YouTubeService;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -16,22 +28,43 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.media.MediaView;
 import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
 import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URL;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 
 /**
  * Main controller for the SmartTube Desktop application UI
  */
 public class MainController implements Initializable {
     
+    private static final Logger logger = LoggerFactory.getLogger(MainController.class);
+    
+    /** Start loading the next search page when this close to the end of the list */
+    private static final int SEARCH_PREFETCH_THRESHOLD = 5;
+    
+    /** Stream details are resolved ahead of time for this many top results */
+    private static final int PREFETCH_TOP_RESULTS = 3;
+    private static final int PREFETCH_MAX_CONCURRENT = 2;
+    private static final int PREFETCH_MAX_PER_MINUTE = 20;
+    private static final Duration HOVER_PREFETCH_DELAY = Duration.millis(400);
+    
+    /** Quality selector entry that adapts to measured throughput */
+    private static final String AUTO_QUALITY = "Auto";
+    
+    /** Start preloading the next playlist item this many seconds before the current one ends */
+    private static final double PRELOAD_LEAD_SECONDS = 30;
+    
     // FXML Components
     @FXML private TextField searchField;
     @FXML private Button searchButton;
@@ -68,7 +101,19 @@ public class MainController implements Initializable {
     // Services and Components
     private Stage primaryStage;
     private VideoPlayer videoPlayer;
+    private AdaptiveQualityController adaptiveQuality;
+    
+    /** Progressive stream to fall back to while playing through the HLS gateway */
+    private String gatewayFallbackUrl;
+    private MediaKey gatewayFallbackKey;
+    
+    /** Next playlist item the player is preloading, and the quality and format it was resolved for */
+    private String preloadedVideoId;
+    private String preloadedQuality;
+    private VideoFormat preloadedFormat;
+    private Timeline preloadTimer;
     private YouTubeService youTubeService;
+    private StreamPrefetcher streamPrefetcher;
     
     // State
     private Video currentVideo;
@@ -77,6 +122,10 @@ public class MainController implements Initializable {
     private boolean isControlsVisible = true;
     private boolean isMuted = false;
     private double lastVolume = 0.5;
+    private SearchStream activeSearch;
+    private int searchGeneration;
+    private Runnable rateLimitSubscription;
+    private boolean disposed;
     
     public void setStage(Stage stage) {
         this.primaryStage = stage;
@@ -87,25 +136,75 @@ public class MainController implements Initializable {
         initializeServices();
         setupUI();
         setupEventHandlers();
+        disposeWithWindow();
         updateStatus("Ready");
     }
+    
+    /**
+     * Nothing else owns this controller's lifetime, so tear it down when the window showing it closes
+     */
+    private void disposeWithWindow() {
+        mediaView.sceneProperty().addListener((sceneObservable, oldScene, scene) -> {
+            if (scene == null) {
+                return;
+            }
+            if (scene.getWindow() != null) {
+                disposeOnHidden(scene.getWindow());
+            }
+            scene.windowProperty().addListener((windowObservable, oldWindow, window) -> {
+                if (window != null) {
+                    disposeOnHidden(window);
+                }
+            });
+        });
+    }
+    
+    private void disposeOnHidden(Window window) {
+        window.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> dispose());
+    }
       private void initializeServices() {
         youTubeService = new YouTubeService();
+        streamPrefetcher = new StreamPrefetcher(youTubeService, PREFETCH_MAX_CONCURRENT, PREFETCH_MAX_PER_MINUTE);
         videoPlayer = new VideoPlayer(mediaView);
+        adaptiveQuality = new AdaptiveQualityController(videoPlayer);
+        adaptiveQuality.setOnSwitch(format -> updateStatus("Auto quality: " + format.getQuality()));
+        videoPlayer.setOnError(this::onPlaybackError);
+        videoPlayer.setOnEndOfMedia(this::nextVideo);
+        preloadTimer = new Timeline(new KeyFrame(Duration.seconds(1), e -> checkPreload()));
+        preloadTimer.setCycleCount(Animation.INDEFINITE);
+        preloadTimer.play();
         playlist = FXCollections.observableArrayList();
         
         // Bind playlist to playlist view
         playlistView.setItems(playlist);
+        
+        // Surface rate limiting in the status bar
+        rateLimitSubscription = youTubeService.addRateLimitListener((host, state) ->
+            Platform.runLater(() -> updateConnectionStatus(state)));
     }
     
     private void setupUI() {
         // Setup list views with custom cell factories
-        searchResultsList.setCellFactory(listView -> new VideoListCell());
+        searchResultsList.setCellFactory(listView -> {
+            VideoListCell cell = new VideoListCell();
+            cell.indexProperty().addListener((obs, oldIndex, newIndex) -> onSearchResultShown(newIndex.intValue()));
+            
+            // Resolve streams for an item the pointer rests on, it is likely to be clicked
+            PauseTransition hoverDelay = new PauseTransition(HOVER_PREFETCH_DELAY);
+            hoverDelay.setOnFinished(e -> {
+                if (cell.getItem() != null) {
+                    streamPrefetcher.prefetch(cell.getItem().getId());
+                }
+            });
+            cell.setOnMouseEntered(e -> hoverDelay.playFromStart());
+            cell.setOnMouseExited(e -> hoverDelay.stop());
+            return cell;
+        });
         playlistView.setCellFactory(listView -> new VideoListCell());
         
         // Setup quality combo box
-        qualityComboBox.getItems().addAll("Auto", "1080p", "720p", "480p", "360p", "240p");
-        qualityComboBox.setValue("Auto");
+        qualityComboBox.getItems().addAll(AUTO_QUALITY, "1080p", "720p", "480p", "360p", "240p");
+        qualityComboBox.setValue(AUTO_QUALITY);
         
         // Setup volume slider
         volumeSlider.setValue(50);
@@ -265,6 +364,7 @@ public class MainController implements Initializable {
     
     @FXML
     private void stop() {        videoPlayer.stop();
+        adaptiveQuality.stop();
         playPauseButton.setText("Play");
         progressSlider.setValue(0);
         currentTimeLabel.setText("00:00");
@@ -314,10 +414,11 @@ public class MainController implements Initializable {
             loadVideoDetails(currentVideo.getId()).thenAccept(video -> {
                 if (video != null) {
                     Platform.runLater(() -> {
-                        VideoFormat format = selectBestFormat(video.getFormats(), selectedQuality);
+                        VideoFormat format = selectBestFormat(video, selectedQuality);
                         if (format != null) {
-                            videoPlayer.loadVideo(format.getUrl());
+                            videoPlayer.loadVideo(resolvePlaybackUrl(video, format, selectedQuality), MediaKey.of(video.getId(), format));
                             videoPlayer.play();
+                            updateAdaptiveQuality(video, format, selectedQuality);
                         }
                     });
                 }
@@ -341,26 +442,73 @@ public class MainController implements Initializable {
             searchProgressIndicator.setVisible(true);
             updateStatus("Searching...");
             
-            youTubeService.searchVideos(query, 20).thenAccept(videos -> {
-                Platform.runLater(() -> {
-                    searchResultsList.getItems().clear();
-                    searchResultsList.getItems().addAll(videos);
-                    searchProgressIndicator.setVisible(false);
-                    updateStatus("Found " + videos.size() + " videos");
-                });
-            }).exceptionally(throwable -> {
-                Platform.runLater(() -> {
-                    searchProgressIndicator.setVisible(false);
-                    showAlert("Search Error", "Error searching videos: " + throwable.getMessage());
-                    updateStatus("Search failed");
-                });
-                return null;
-            });
+            // A new search supersedes the previous one and aborts its HTTP call
+            cancelActiveSearch();
+            searchResultsList.getItems().clear();
+            
+            int generation = ++searchGeneration;
+            activeSearch = youTubeService.streamSearch(query,
+                page -> Platform.runLater(() -> onSearchPage(generation, page)),
+                error -> Platform.runLater(() -> onSearchError(generation, error)));
+            activeSearch.start();
+        }
+    }
+    
+    private void onSearchPage(int generation, VideoGroup page) {
+        if (generation != searchGeneration) {
+            return;
+        }
+        boolean firstPage = searchResultsList.getItems().isEmpty();
+        searchResultsList.getItems().addAll(page.getVideos());
+        searchProgressIndicator.setVisible(false);
+        
+        if (firstPage) {
+            prefetchTopResults(page.getVideos());
+        }
+        updateStatus("Found " + searchResultsList.getItems().size() + " videos"
+            + (page.getNextPageKey() != null ? "" : " (end of results)"));
+    }
+    
+    private void onSearchError(int generation, Throwable error) {
+        if (generation != searchGeneration) {
+            return;
+        }
+        searchProgressIndicator.setVisible(false);
+        if (searchResultsList.getItems().isEmpty()) {
+            showAlert("Search Error", "Error searching videos: " + error.getMessage());
+            updateStatus("Search failed");
+        } else {
+            updateStatus("Could not load more results");
+        }
+    }
+    
+    private void prefetchTopResults(List<Video> videos) {
+        for (int i = 0; i < Math.min(PREFETCH_TOP_RESULTS, videos.size()); i++) {
+            streamPrefetcher.prefetch(videos.get(i).getId());
+        }
+    }
+    
+    private void cancelActiveSearch() {
+        streamPrefetcher.clear();
+        searchGeneration++;
+        if (activeSearch != null) {
+            activeSearch.cancel();
+            activeSearch = null;
+        }
+    }
+    
+    /**
+     * Fetch the next page of results once the list is scrolled near its end
+     */
+    private void onSearchResultShown(int index) {
+        if (activeSearch != null && index >= searchResultsList.getItems().size() - SEARCH_PREFETCH_THRESHOLD) {
+            activeSearch.onNearEnd();
         }
     }
     
     @FXML
     private void loadTrending() {
+        cancelActiveSearch();
         searchProgressIndicator.setVisible(true);
         updateStatus("Loading trending videos...");
         
@@ -369,6 +517,7 @@ public class MainController implements Initializable {
                 searchResultsList.getItems().clear();
                 searchResultsList.getItems().addAll(videos);
                 searchProgressIndicator.setVisible(false);
+                prefetchTopResults(videos);
                 updateStatus("Loaded trending videos");
             });
         }).exceptionally(throwable -> {
@@ -386,6 +535,8 @@ public class MainController implements Initializable {
     private void clearPlaylist() {
         playlist.clear();
         currentPlaylistIndex = -1;
+        videoPlayer.cancelPreload();
+        preloadedVideoId = null;
         updateStatus("Playlist cleared");
     }
     
@@ -407,10 +558,14 @@ public class MainController implements Initializable {
             if (detailedVideo != null) {
                 Platform.runLater(() -> {
                     String quality = qualityComboBox.getValue();
-                    VideoFormat format = selectBestFormat(detailedVideo.getFormats(), quality);
+                    VideoFormat format = takePreloadedFormat(detailedVideo, quality);
+                    if (format == null) {
+                        format = selectBestFormat(detailedVideo, quality);
+                    }
                     
-                    if (format != null) {                        videoPlayer.loadVideo(format.getUrl());
+                    if (format != null) {                        videoPlayer.loadVideo(resolvePlaybackUrl(detailedVideo, format, quality), MediaKey.of(detailedVideo.getId(), format));
                         videoPlayer.play();
+                        updateAdaptiveQuality(detailedVideo, format, quality);
                         playPauseButton.setText("Pause");
                         updateStatus("Playing: " + video.getTitle());
                         
@@ -456,35 +611,136 @@ public class MainController implements Initializable {
     }
     
     private CompletableFuture<Video> loadVideoDetails(String videoId) {
-        String url = "https://www.youtube.com/watch?v=" + videoId;
-        return youTubeService.getVideoDetails(url);
+        // Repeated calls for the same id while a lookup is running share that lookup
+        return youTubeService.getVideoDetails(videoId);
     }
     
-    private VideoFormat selectBestFormat(List<VideoFormat> formats, String preferredQuality) {
-        if (formats == null || formats.isEmpty()) {
-            return null;
-        }        // Filter formats that have both video and audio
-        List<VideoFormat> videoAudioFormats = formats.stream()
-            .filter(f -> f.hasVideo() && f.hasAudio())
-            .collect(Collectors.toList());
-        
-        if (!videoAudioFormats.isEmpty()) {
-            if ("Auto".equals(preferredQuality)) {
-                return videoAudioFormats.get(0); // First (usually best) format
-            }
-            
-            // Find format matching preferred quality
-            for (VideoFormat format : videoAudioFormats) {
-                if (format.getQuality() != null && format.getQuality().contains(preferredQuality.replace("p", ""))) {
-                    return format;
-                }
+    private VideoFormat selectBestFormat(Video video, String preferredQuality) {
+        if (AUTO_QUALITY.equals(preferredQuality)) {
+            // Start at what the link has sustained so far; the adaptive controller takes it from there
+            VideoFormat format = adaptiveQuality.selectInitial(video);
+            if (format != null) {
+                return format;
             }
-            
-            return videoAudioFormats.get(0); // Fallback to first format
+        }
+        return video.getBestFormat(preferredQuality);
+    }
+    
+    /**
+     * URL to play for the chosen quality. When it is higher than the best progressive stream, the matching
+     * video-only and audio-only DASH streams are combined through the local HLS gateway.
+     */
+    private String resolvePlaybackUrl(Video video, VideoFormat combined, String quality) {
+        gatewayFallbackUrl = null;
+        gatewayFallbackKey = null;
+        if (!usesGateway(video, combined, quality)) {
+            return combined.getUrl();
+        }
+        
+        try {
+            FormatIndex index = video.getFormatIndex();
+            String url = HlsGateway.getInstance().register(video.getId(), gatewayVideo(index, quality), gatewayAudio(index));
+            gatewayFallbackUrl = combined.getUrl();
+            gatewayFallbackKey = MediaKey.of(video.getId(), combined);
+            return url;
+        } catch (RuntimeException e) {
+            logger.warn("HLS gateway unavailable: {}", e.getMessage());
+            return combined.getUrl();
+        }
+    }
+    
+    /**
+     * Whether {@link #resolvePlaybackUrl} plays this quality through the HLS gateway rather than {@code combined}
+     */
+    private boolean usesGateway(Video video, VideoFormat combined, String quality) {
+        if (AUTO_QUALITY.equals(quality)) {
+            return false;
+        }
+        FormatIndex index = video.getFormatIndex();
+        VideoFormat videoOnly = gatewayVideo(index, quality);
+        return videoOnly != null && videoOnly.getHeight() > combined.getHeight()
+            && HlsGateway.canServe(videoOnly, gatewayAudio(index));
+    }
+    
+    private static VideoFormat gatewayVideo(FormatIndex index, String quality) {
+        return index.bestAtOrUnderHeight(FormatIndex.Kind.VIDEO_ONLY, FormatIndex.parseMaxHeight(quality), "video/mp4");
+    }
+    
+    private static VideoFormat gatewayAudio(FormatIndex index) {
+        return index.bestAtOrUnderBitrate(FormatIndex.Kind.AUDIO_ONLY, Long.MAX_VALUE, "audio/mp4");
+    }
+    
+    /**
+     * Near the end of the current item, resolve the next playlist entry and let the player open it in the
+     * background, so advancing to it only swaps players
+     */
+    private void checkPreload() {
+        double total = videoPlayer.getTotalTime();
+        if (total <= 0 || total - videoPlayer.getCurrentTime() > PRELOAD_LEAD_SECONDS) {
+            return;
+        }
+        if (currentPlaylistIndex < 0 || currentPlaylistIndex >= playlist.size() - 1) {
+            return;
+        }
+        Video next = playlist.get(currentPlaylistIndex + 1);
+        String quality = qualityComboBox.getValue();
+        if (next.getId().equals(preloadedVideoId) && Objects.equals(quality, preloadedQuality)) {
+            return;
         }
         
-        // Fallback to any format
-        return formats.get(0);
+        String videoId = next.getId();
+        preloadedVideoId = videoId;
+        preloadedQuality = quality;
+        preloadedFormat = null;
+        youTubeService.prefetchVideoDetails(videoId).thenAccept(detailedVideo -> Platform.runLater(() -> {
+            if (detailedVideo == null || !videoId.equals(preloadedVideoId) || !Objects.equals(quality, preloadedQuality)) {
+                return;
+            }
+            VideoFormat format = selectBestFormat(detailedVideo, quality);
+            // Gateway sessions are registered per playback, so only progressive streams are preloaded
+            if (format == null || usesGateway(detailedVideo, format, quality)) {
+                return;
+            }
+            preloadedFormat = format;
+            videoPlayer.preload(format.getUrl(), MediaKey.of(videoId, format));
+        }));
+    }
+    
+    /**
+     * Format preloaded for {@code video} at {@code quality}, or null. Either way the preload bookkeeping is
+     * reset, and a preload for some other video is dropped.
+     */
+    private VideoFormat takePreloadedFormat(Video video, String quality) {
+        VideoFormat format = video.getId().equals(preloadedVideoId) && Objects.equals(quality, preloadedQuality)
+            ? preloadedFormat : null;
+        if (format == null) {
+            videoPlayer.cancelPreload();
+        }
+        preloadedVideoId = null;
+        preloadedQuality = null;
+        preloadedFormat = null;
+        return format;
+    }
+    
+    private void onPlaybackError() {
+        // A gateway stream the player could not handle; retry with the progressive stream
+        if (gatewayFallbackUrl != null) {
+            String url = gatewayFallbackUrl;
+            MediaKey key = gatewayFallbackKey;
+            gatewayFallbackUrl = null;
+            gatewayFallbackKey = null;
+            updateStatus("High quality stream failed, falling back");
+            videoPlayer.loadVideo(url, key);
+            videoPlayer.play();
+        }
+    }
+    
+    private void updateAdaptiveQuality(Video video, VideoFormat format, String quality) {
+        if (AUTO_QUALITY.equals(quality)) {
+            adaptiveQuality.start(video, format);
+        } else {
+            adaptiveQuality.stop();
+        }
     }
     
     // UI Helper Methods
@@ -565,6 +821,20 @@ public class MainController implements Initializable {
     private void updateStatus(String message) {
         statusLabel.setText(message);
     }
+    
+    private void updateConnectionStatus(CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN:
+                connectionStatusLabel.setText("Rate limited - backing off");
+                break;
+            case HALF_OPEN:
+                connectionStatusLabel.setText("Rate limited - retrying");
+                break;
+            default:
+                connectionStatusLabel.setText("Connected");
+                break;
+        }
+    }
       private String formatDuration(double seconds) {
         if (seconds <= 0) {
             return "00:00";
@@ -594,6 +864,27 @@ public class MainController implements Initializable {
         }
     }
     
+    /**
+     * Stop playback and detach from shared services. Runs when the window is hidden; later calls do nothing.
+     */
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        if (rateLimitSubscription != null) {
+            rateLimitSubscription.run();
+            rateLimitSubscription = null;
+        }
+        if (activeSearch != null) {
+            activeSearch.cancel();
+        }
+        streamPrefetcher.clear();
+        preloadTimer.stop();
+        adaptiveQuality.stop();
+        videoPlayer.dispose();
+    }
+    
     private void showAlert(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle(title);
@@ -635,14 +926,14 @@ public class MainController implements Initializable {
                 break;            case LEFT:
                 if (event.isControlDown() && currentVideo != null) {
                     double currentTime = videoPlayer.getCurrentTime();
-                    videoPlayer.seek(Math.max(0, currentTime - 10));
+                    videoPlayer.seek(Math.max(0, currentTime - VideoPlayer.SEEK_STEP_SECONDS));
                     event.consume();
                 }
                 break;
             case RIGHT:
                 if (event.isControlDown() && currentVideo != null) {
                     double currentTime = videoPlayer.getCurrentTime();
-                    videoPlayer.seek(currentTime + 10);
+                    videoPlayer.seek(currentTime + VideoPlayer.SEEK_STEP_SECONDS);
                     event.consume();
                 }
                 break;
@@ -0,0 +1,163 @@
+package com.liskovsoft.smarttube.desktop.ui;
+
+import com.liskovsoft.smarttube.desktop.service.DiskLruStore;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent store of decoded thumbnails of one pixel size, so previously seen thumbnails can be shown
+ * after a restart without decoding a JPEG.
+ * <p>
+ * The file is memory-mapped and split into fixed-size slots, each holding the key of the thumbnail URL,
+ * its dimensions and its premultiplied ARGB pixels. A thumbnail always goes to the slot its key hashes
+ * to and replaces whatever was there, so the atlas needs no separate index and its size never grows.
+ * Reads copy the pixels straight into a {@link WritableImage}.
+ */
+public class ThumbnailAtlas {
+
+    private static final int MAGIC = 0x53544154;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 16;
+
+    /** Hex SHA-1 of the thumbnail URL */
+    private static final int KEY_BYTES = 40;
+    /** Key, width, height and a completion flag */
+    private static final int SLOT_HEADER_BYTES = KEY_BYTES + 12;
+    private static final int SLOT_COMPLETE = 1;
+
+    private final int slotWidth;
+    private final int slotHeight;
+    private final int slotCount;
+    private final int slotBytes;
+    private final MappedByteBuffer buffer;
+
+    private ThumbnailAtlas(int slotWidth, int slotHeight, int slotCount, MappedByteBuffer buffer) {
+        this.slotWidth = slotWidth;
+        this.slotHeight = slotHeight;
+        this.slotCount = slotCount;
+        this.slotBytes = SLOT_HEADER_BYTES + slotWidth * slotHeight * 4;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Open or create the atlas for {@code slotWidth} x {@code slotHeight} pixel images, holding as many
+     * slots as fit in {@code maxBytes}. An existing file laid out differently is started over.
+     */
+    public static ThumbnailAtlas open(File directory, int slotWidth, int slotHeight, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create atlas directory: " + directory);
+        }
+        int slotBytes = SLOT_HEADER_BYTES + slotWidth * slotHeight * 4;
+        int slotCount = (int) Math.min(Math.max((maxBytes - FILE_HEADER_BYTES) / slotBytes, 1), (Integer.MAX_VALUE - FILE_HEADER_BYTES) / slotBytes);
+        long fileBytes = FILE_HEADER_BYTES + (long) slotCount * slotBytes;
+
+        File file = new File(directory, slotWidth + "x" + slotHeight + ".atlas");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            boolean fresh = channel.size() != fileBytes;
+            if (fresh) {
+                channel.truncate(0);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+            if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != slotWidth || buffer.getInt(12) != slotHeight) {
+                for (int slot = 0; slot < slotCount; slot++) {
+                    buffer.putInt(FILE_HEADER_BYTES + slot * slotBytes + KEY_BYTES + 8, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, slotWidth);
+                buffer.putInt(12, slotHeight);
+            }
+            return new ThumbnailAtlas(slotWidth, slotHeight, slotCount, buffer);
+        }
+    }
+
+    /**
+     * The stored thumbnail for {@code url}, or null
+     */
+    public synchronized Image get(String url) {
+        byte[] key = key(url);
+        int offset = slotOffset(key);
+        if (buffer.getInt(offset + KEY_BYTES + 8) != SLOT_COMPLETE || !keyMatches(offset, key)) {
+            return null;
+        }
+        int width = buffer.getInt(offset + KEY_BYTES);
+        int height = buffer.getInt(offset + KEY_BYTES + 4);
+        if (width <= 0 || height <= 0 || width > slotWidth || height > slotHeight) {
+            return null;
+        }
+
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels(offset, width, height), width);
+        return image;
+    }
+
+    /**
+     * Store a decoded thumbnail, replacing the one in its slot. Images larger than the slot are skipped.
+     */
+    public synchronized void put(String url, Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        PixelReader reader = image.getPixelReader();
+        if (reader == null || width <= 0 || height <= 0 || width > slotWidth || height > slotHeight) {
+            return;
+        }
+
+        byte[] key = key(url);
+        int offset = slotOffset(key);
+        // Mark the slot incomplete first so an interrupted write is never read back as a torn image
+        buffer.putInt(offset + KEY_BYTES + 8, 0);
+        for (int i = 0; i < KEY_BYTES; i++) {
+            buffer.put(offset + i, key[i]);
+        }
+        buffer.putInt(offset + KEY_BYTES, width);
+        buffer.putInt(offset + KEY_BYTES + 4, height);
+        reader.getPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels(offset, width, height), width);
+        buffer.putInt(offset + KEY_BYTES + 8, SLOT_COMPLETE);
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    private IntBuffer pixels(int slotOffset, int width, int height) {
+        ByteBuffer view = buffer.duplicate();
+        int start = slotOffset + SLOT_HEADER_BYTES;
+        view.position(start);
+        view.limit(start + width * height * 4);
+        return view.slice().asIntBuffer();
+    }
+
+    private int slotOffset(byte[] key) {
+        int hash = 0;
+        for (byte b : key) {
+            hash = 31 * hash + b;
+        }
+        return FILE_HEADER_BYTES + Math.floorMod(hash, slotCount) * slotBytes;
+    }
+
+    private boolean keyMatches(int offset, byte[] key) {
+        for (int i = 0; i < KEY_BYTES; i++) {
+            if (buffer.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] key(String url) {
+        return DiskLruStore.hashKey(url).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,270 @@
+package com.liskovsoft.smarttube.desktop.ui;
+
+import com.liskovsoft.smarttube.desktop.model.Video;
+import com.liskovsoft.smarttube.desktop.service.DiskLruStore;
+import com.liskovsoft.smarttube.desktop.service.HttpTransport;
+import com.liskovsoft.smarttube.desktop.service.NetworkScheduler;
+import com.liskovsoft.smarttube.desktop.service.SingleFlight;
+import javafx.scene.image.Image;
+import javafx.stage.Screen;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared thumbnail loader for every view that shows video thumbnails.
+ * <p>
+ * Two tiers: decoded images in memory, bounded by their pixel bytes rather than by entry count, and the
+ * compressed image files on disk. Decoded pixels are also kept in a {@link ThumbnailAtlas} per display
+ * size, which restores them in a later session without decoding. Decoded images are keyed by URL and size in device pixels, since the
+ * same thumbnail decoded for a list cell and a browse card are different images. Views should request
+ * the variant from {@link #selectUrl(Video, double, double)} rather than the largest one available. Concurrent requests for one
+ * image share a single load. Downloads run in the background network lane and decoding on a small
+ * dedicated pool.
+ */
+public class ThumbnailService {
+
+    private static final long DEFAULT_MEMORY_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_DISK_MAX_BYTES = 256L * 1024 * 1024;
+    /** Per display size */
+    private static final long DEFAULT_ATLAS_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Decoded JavaFX images hold 4 bytes per pixel */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final int DECODE_THREADS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final ExecutorService DECODER = Executors.newFixedThreadPool(DECODE_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "thumbnail-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile ThumbnailService instance;
+
+    private final DiskLruStore disk;
+    private final long memoryMaxBytes;
+    private final LinkedHashMap<String, Image> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    private final SingleFlight<String, Image> loads = new SingleFlight<>();
+    /** Atlases by device pixel size; null values mark sizes whose atlas failed to open */
+    private final Map<String, ThumbnailAtlas> atlases = new HashMap<>();
+    private final long atlasMaxBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong atlasHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong networkFetches = new AtomicLong();
+
+    public ThumbnailService(DiskLruStore disk, long memoryMaxBytes, long atlasMaxBytes) {
+        this.disk = disk;
+        this.memoryMaxBytes = memoryMaxBytes;
+        this.atlasMaxBytes = atlasMaxBytes;
+    }
+
+    public static ThumbnailService getInstance() {
+        if (instance == null) {
+            synchronized (ThumbnailService.class) {
+                if (instance == null) {
+                    long memoryMax = Long.getLong("smarttube.thumbnails.memoryMaxBytes", DEFAULT_MEMORY_MAX_BYTES);
+                    long diskMax = Long.getLong("smarttube.thumbnails.diskMaxBytes", DEFAULT_DISK_MAX_BYTES);
+                    long atlasMax = Long.getLong("smarttube.thumbnails.atlasMaxBytes", DEFAULT_ATLAS_MAX_BYTES);
+                    instance = new ThumbnailService(new DiskLruStore(DiskLruStore.cacheDirectory("thumbnails"), diskMax), memoryMax, atlasMax);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Device pixels per layout pixel on the primary screen, e.g. 2 on a HiDPI display
+     */
+    public static double displayScale() {
+        double scale = Screen.getPrimary().getOutputScaleX();
+        return scale > 0 ? scale : 1;
+    }
+
+    /**
+     * URL of the smallest variant of the video's thumbnail that covers {@code width} x {@code height}
+     * layout pixels at the display scale
+     */
+    public static String selectUrl(Video video, double width, double height) {
+        double scale = displayScale();
+        return video.getThumbnailUrl(width * scale, height * scale);
+    }
+
+    /**
+     * The decoded image if it is in memory, so a cell can show it without a round trip
+     */
+    public Image getCached(String url, double width, double height) {
+        double scale = displayScale();
+        String key = memoryKey(url, width * scale, height * scale);
+        Image image;
+        synchronized (this) {
+            image = memory.get(key);
+        }
+        if (image != null) {
+            memoryHits.incrementAndGet();
+            return image;
+        }
+
+        // Seen in an earlier session: copy the stored pixels instead of decoding the JPEG again
+        ThumbnailAtlas atlas = atlas(width * scale, height * scale);
+        image = atlas != null ? atlas.get(url) : null;
+        if (image != null) {
+            atlasHits.incrementAndGet();
+            remember(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Load {@code url} decoded to fit {@code width} x {@code height} layout pixels at the display scale,
+     * preserving its aspect ratio. Call on the FX thread.
+     * The future completes on a background thread. Cancelling it withdraws this caller; once every caller
+     * of the same image has withdrawn, a fetch still queued is dropped and a pending decode is skipped.
+     */
+    public CompletableFuture<Image> load(String url, double width, double height) {
+        Image cached = getCached(url, width, height);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        double scale = displayScale();
+        double pixelWidth = width * scale;
+        double pixelHeight = height * scale;
+        String key = memoryKey(url, pixelWidth, pixelHeight);
+        return loads.execute(key, () -> {
+            NetworkScheduler.Task<byte[]> fetch = NetworkScheduler.getInstance().submit(NetworkScheduler.Lane.BACKGROUND, () -> bytes(url));
+            // Decoding and down-scaling are CPU work; keep them off the network threads
+            CompletableFuture<Image> decoded = fetch.thenApplyAsync(data -> decode(key, url, data, pixelWidth, pixelHeight), DECODER);
+            decoded.whenComplete((image, error) -> {
+                if (decoded.isCancelled()) {
+                    fetch.cancel(true);
+                }
+            });
+            return decoded;
+        });
+    }
+
+    private Image decode(String key, String url, byte[] data, double width, double height) {
+        Image image = new Image(new ByteArrayInputStream(data), width, height, true, true);
+        if (image.isError()) {
+            throw new CompletionException(new IOException("Could not decode thumbnail: " + url));
+        }
+        remember(key, image);
+        ThumbnailAtlas atlas = atlas(width, height);
+        if (atlas != null) {
+            atlas.put(url, image);
+        }
+        return image;
+    }
+
+    private byte[] bytes(String url) throws IOException {
+        String diskKey = DiskLruStore.hashKey(url);
+        byte[] data = disk.get(diskKey);
+        if (data != null) {
+            diskHits.incrementAndGet();
+            return data;
+        }
+
+        networkFetches.incrementAndGet();
+        Request request = new Request.Builder().url(url).build();
+        try (Response response = HttpTransport.getInstance().client().newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Thumbnail request failed: HTTP " + response.code());
+            }
+            data = body.bytes();
+        }
+        disk.put(diskKey, data);
+        return data;
+    }
+
+    private synchronized void remember(String key, Image image) {
+        Image previous = memory.put(key, image);
+        if (previous != null) {
+            memoryBytes -= pixelBytes(previous);
+        }
+        memoryBytes += pixelBytes(image);
+
+        Iterator<Map.Entry<String, Image>> iterator = memory.entrySet().iterator();
+        while (memoryBytes > memoryMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Image> eldest = iterator.next();
+            if (eldest.getValue() == image) {
+                break;
+            }
+            memoryBytes -= pixelBytes(eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Atlas for images decoded to fit {@code width} x {@code height} device pixels, or null if it could not
+     * be opened
+     */
+    private ThumbnailAtlas atlas(double width, double height) {
+        String size = (int) Math.ceil(width) + "x" + (int) Math.ceil(height);
+        synchronized (atlases) {
+            if (!atlases.containsKey(size)) {
+                ThumbnailAtlas atlas = null;
+                try {
+                    atlas = ThumbnailAtlas.open(DiskLruStore.cacheDirectory("atlas"), (int) Math.ceil(width), (int) Math.ceil(height), atlasMaxBytes);
+                } catch (IOException e) {
+                    System.err.println("Thumbnail atlas unavailable: " + e.getMessage());
+                }
+                atlases.put(size, atlas);
+            }
+            return atlases.get(size);
+        }
+    }
+
+    private static long pixelBytes(Image image) {
+        return (long) Math.ceil(image.getWidth()) * (long) Math.ceil(image.getHeight()) * BYTES_PER_PIXEL;
+    }
+
+    private static String memoryKey(String url, double width, double height) {
+        return (int) width + "x" + (int) height + "/" + url;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    /**
+     * Images restored from the pre-decoded atlas rather than decoded
+     */
+    public long getAtlasHitCount() {
+        return atlasHits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    public long getNetworkFetchCount() {
+        return networkFetches.get();
+    }
+
+    /**
+     * Requests that joined a load already in flight for the same image
+     */
+    public long getCoalescedCount() {
+        return loads.getCoalescedCount();
+    }
+}
@@ -0,0 +1,177 @@
+package com.liskovsoft.smarttube.desktop.ui;
+
+import com.liskovsoft.smarttube.desktop.model.Video;
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Video card in a browse view shelf. Cards are recycled as the shelf scrolls, so one cell shows many
+ * videos over its lifetime.
+ */
+public class VideoCardCell extends ListCell<Video> {
+
+    static final double CARD_WIDTH = 280.0;
+    static final double CARD_HEIGHT = 290.0;
+
+    private static final double THUMBNAIL_WIDTH = 280.0;
+    private static final double THUMBNAIL_HEIGHT = 157.0;
+
+    private final VBox card;
+    private final ImageView thumbnailImage;
+    private final Label titleLabel;
+    private final Label channelLabel;
+    private final Label infoLabel;
+
+    /** Bumped whenever the cell shows a different item; loads for older generations are discarded */
+    private long thumbnailGeneration;
+    private CompletableFuture<Image> pendingThumbnail;
+    /** URL of the thumbnail shown or loading, null while the cell is empty */
+    private String thumbnailUrl;
+
+    public VideoCardCell(Consumer<Video> onVideoSelected) {
+        super();
+
+        card = new VBox(5.0);
+        card.getStyleClass().add("video-card");
+        card.setMaxWidth(CARD_WIDTH);
+        card.setMinWidth(CARD_WIDTH);
+
+        // Thumbnail, on a placeholder background until the image arrives
+        thumbnailImage = new ImageView();
+        thumbnailImage.setFitWidth(THUMBNAIL_WIDTH);
+        thumbnailImage.setFitHeight(THUMBNAIL_HEIGHT);
+        thumbnailImage.setPreserveRatio(true);
+        StackPane thumbnail = new StackPane(thumbnailImage);
+        thumbnail.getStyleClass().add("video-thumbnail");
+        thumbnail.setPrefSize(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT); // 16:9 aspect ratio
+
+        // Video title
+        titleLabel = new Label();
+        titleLabel.getStyleClass().add("video-title");
+        titleLabel.setWrapText(true);
+        titleLabel.setMaxHeight(40.0);
+
+        // Channel name
+        channelLabel = new Label();
+        channelLabel.getStyleClass().add("video-channel");
+
+        // Video info (views, duration, etc.)
+        infoLabel = new Label();
+        infoLabel.getStyleClass().add("video-info");
+
+        card.getChildren().addAll(thumbnail, titleLabel, channelLabel, infoLabel);
+
+        // Add click handler
+        card.setOnMouseClicked(e -> {
+            Video video = getItem();
+            if (video != null && onVideoSelected != null) {
+                onVideoSelected.accept(video);
+            }
+        });
+
+        getStyleClass().add("video-card-cell");
+    }
+
+    @Override
+    protected void updateItem(Video video, boolean empty) {
+        super.updateItem(video, empty);
+
+        if (empty || video == null) {
+            cancelThumbnail();
+            thumbnailUrl = null;
+            setGraphic(null);
+            return;
+        }
+
+        titleLabel.setText(video.getTitle());
+        channelLabel.setText(video.getChannelName());
+        infoLabel.setText(formatVideoInfo(video));
+        showThumbnail(ThumbnailService.selectUrl(video, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT));
+
+        setGraphic(card);
+    }
+
+    /**
+     * ListView calls updateItem for every layout pass, not only when the cell is rebound, so a thumbnail
+     * that is already shown or loading is left alone
+     */
+    private void showThumbnail(String url) {
+        if (url != null && url.equals(thumbnailUrl)) {
+            return;
+        }
+        cancelThumbnail();
+        thumbnailUrl = url;
+        loadThumbnail(url);
+    }
+
+    private void loadThumbnail(String thumbnailUrl) {
+        if (thumbnailUrl == null || thumbnailUrl.isEmpty()) {
+            thumbnailImage.setImage(null);
+            return;
+        }
+        ThumbnailService thumbnails = ThumbnailService.getInstance();
+        Image cached = thumbnails.getCached(thumbnailUrl, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        if (cached != null) {
+            thumbnailImage.setImage(cached);
+            return;
+        }
+
+        // Never show the previous item's thumbnail while this one loads
+        thumbnailImage.setImage(null);
+        long generation = thumbnailGeneration;
+        CompletableFuture<Image> load = thumbnails.load(thumbnailUrl, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        pendingThumbnail = load;
+        load.whenComplete((image, error) -> {
+            if (!load.isCancelled() && error == null) {
+                Platform.runLater(() -> publishThumbnail(generation, image));
+            }
+        });
+    }
+
+    private void publishThumbnail(long generation, Image image) {
+        if (generation == thumbnailGeneration) {
+            pendingThumbnail = null;
+            thumbnailImage.setImage(image);
+        }
+    }
+
+    private void cancelThumbnail() {
+        thumbnailGeneration++;
+        if (pendingThumbnail != null) {
+            pendingThumbnail.cancel(false);
+            pendingThumbnail = null;
+        }
+    }
+
+    private String formatVideoInfo(Video video) {
+        StringBuilder info = new StringBuilder();
+
+        if (video.getViewCount() > 0) {
+            info.append(formatViewCount(video.getViewCount())).append(" views");
+        }
+        if (video.getDurationText() != null && !video.getDurationText().isEmpty()) {
+            if (info.length() > 0) info.append(" • ");
+            info.append(video.getDurationText());
+        }
+
+        return info.toString();
+    }
+
+    private String formatViewCount(long views) {
+        if (views >= 1000000) {
+            return String.format("%.1fM", views / 1000000.0);
+        } else if (views >= 1000) {
+            return String.format("%.1fK", views / 1000.0);
+        } else {
+            return String.valueOf(views);
+        }
+    }
+}
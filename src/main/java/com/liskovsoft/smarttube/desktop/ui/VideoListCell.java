@@ -1,6 +1,7 @@
 package com.liskovsoft.smarttube.desktop.ui;
 
 import com.liskovsoft.smarttube.desktop.model.Video;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Label;
@@ -11,11 +12,16 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Custom list cell for displaying video items in search results and playlists
  */
 public class VideoListCell extends ListCell<Video> {
     
+    private static final double THUMBNAIL_WIDTH = 120;
+    private static final double THUMBNAIL_HEIGHT = 68;
+    
     private final HBox content;
     private final ImageView thumbnail;
     private final VBox textContainer;
@@ -24,13 +30,19 @@ public class VideoListCell extends ListCell<Video> {
     private final Label durationLabel;
     private final Label viewCountLabel;
     
+    /** Bumped whenever the cell shows a different item; loads for older generations are discarded */
+    private long thumbnailGeneration;
+    private CompletableFuture<Image> pendingThumbnail;
+    /** URL of the thumbnail shown or loading, null while the cell is empty */
+    private String thumbnailUrl;
+    
     public VideoListCell() {
         super();
         
         // Create thumbnail
         thumbnail = new ImageView();
-        thumbnail.setFitWidth(120);
-        thumbnail.setFitHeight(68);
+        thumbnail.setFitWidth(THUMBNAIL_WIDTH);
+        thumbnail.setFitHeight(THUMBNAIL_HEIGHT);
         thumbnail.setPreserveRatio(true);
         thumbnail.setSmooth(true);
         thumbnail.getStyleClass().add("video-thumbnail");
@@ -81,6 +93,8 @@ public class VideoListCell extends ListCell<Video> {
         super.updateItem(video, empty);
         
         if (empty || video == null) {
+            cancelThumbnail();
+            thumbnailUrl = null;
             setGraphic(null);
             return;
         }
@@ -103,33 +117,72 @@ public class VideoListCell extends ListCell<Video> {
         }
         
         // Load thumbnail
-        loadThumbnail(video.getThumbnailUrl());
+        showThumbnail(ThumbnailService.selectUrl(video, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT));
         
         setGraphic(content);
     }
     
+    /**
+     * ListView calls updateItem for every layout pass, not only when the cell is rebound, so a thumbnail
+     * that is already shown or loading is left alone
+     */
+    private void showThumbnail(String url) {
+        if (url != null && url.equals(thumbnailUrl)) {
+            return;
+        }
+        cancelThumbnail();
+        thumbnailUrl = url;
+        loadThumbnail(url);
+    }
+    
     private void loadThumbnail(String thumbnailUrl) {
         if (thumbnailUrl != null && !thumbnailUrl.isEmpty()) {
-            try {
-                // Load thumbnail asynchronously
-                Image image = new Image(thumbnailUrl, 120, 68, true, true, true);
-                thumbnail.setImage(image);
-                
-                // Add error handling
-                image.errorProperty().addListener((obs, oldError, newError) -> {
-                    if (newError) {
-                        loadDefaultThumbnail();
-                    }
-                });
-                
-            } catch (Exception e) {
-                loadDefaultThumbnail();
+            Image cached = ThumbnailService.getInstance().getCached(thumbnailUrl, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+            if (cached != null) {
+                thumbnail.setImage(cached);
+                return;
             }
+            
+            // Never show the previous item's thumbnail while this one loads
+            thumbnail.setImage(null);
+            long generation = thumbnailGeneration;
+            CompletableFuture<Image> load = ThumbnailService.getInstance().load(thumbnailUrl, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+            pendingThumbnail = load;
+            load.whenComplete((image, error) -> {
+                if (!load.isCancelled()) {
+                    Platform.runLater(() -> publishThumbnail(generation, image, error));
+                }
+            });
         } else {
             loadDefaultThumbnail();
         }
     }
     
+    private void publishThumbnail(long generation, Image image, Throwable error) {
+        if (generation != thumbnailGeneration) {
+            // The cell has been reused for another item since
+            return;
+        }
+        pendingThumbnail = null;
+        if (error != null) {
+            loadDefaultThumbnail();
+        } else {
+            thumbnail.setImage(image);
+        }
+    }
+    
+    /**
+     * Withdraw from the load started for the previous item, so flinging past it does not leave a queued
+     * download and decode behind
+     */
+    private void cancelThumbnail() {
+        thumbnailGeneration++;
+        if (pendingThumbnail != null) {
+            pendingThumbnail.cancel(false);
+            pendingThumbnail = null;
+        }
+    }
+    
     private void loadDefaultThumbnail() {
         // Create a simple default thumbnail
         thumbnail.setImage(null);
@@ -0,0 +1,91 @@
+package com.liskovsoft.smarttube.desktop.ui;
+
+import com.liskovsoft.smarttube.desktop.model.Video;
+import com.liskovsoft.smarttube.desktop.model.VideoGroup;
+import javafx.collections.FXCollections;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.VBox;
+
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * One section of the browse view: its title above a horizontally scrolling row of video cards.
+ * <p>
+ * The row is itself a ListView, so only the cards in view exist and they are recycled while scrolling.
+ * Shelves are recycled the same way by the vertical section list, which keeps the scene graph the same
+ * size however many sections or videos a category returns.
+ */
+public class VideoShelfCell extends ListCell<VideoGroup> {
+
+    private static final double CARD_SPACING = 16.0;
+    private static final double TITLE_HEIGHT = 44.0;
+    /** Room for the card, its hover padding and the horizontal scroll bar */
+    private static final double ROW_HEIGHT = VideoCardCell.CARD_HEIGHT + 16.0;
+    private static final double SHELF_SPACING = 32.0;
+
+    /** Fixed height of every shelf, so the section list never has to measure one */
+    static final double SHELF_HEIGHT = TITLE_HEIGHT + ROW_HEIGHT + SHELF_SPACING;
+
+    private final VBox content;
+    private final Label titleLabel;
+    private final ListView<Video> row;
+
+    public VideoShelfCell(Consumer<Video> onVideoSelected) {
+        super();
+
+        titleLabel = new Label();
+        titleLabel.getStyleClass().add("section-title");
+
+        row = new ListView<>();
+        row.setOrientation(Orientation.HORIZONTAL);
+        row.setFixedCellSize(VideoCardCell.CARD_WIDTH + CARD_SPACING);
+        row.setPrefHeight(ROW_HEIGHT);
+        row.setMinHeight(ROW_HEIGHT);
+        row.setFocusTraversable(false);
+        row.getStyleClass().add("video-shelf-row");
+        row.setCellFactory(list -> new VideoCardCell(onVideoSelected));
+        // A horizontal list turns the vertical wheel into sideways scrolling; pass it to the section list
+        // instead so the page scrolls with the pointer over a shelf. Shift-wheel and sideways swipes still
+        // scroll the row.
+        row.addEventFilter(ScrollEvent.SCROLL, this::forwardVerticalScroll);
+
+        content = new VBox(titleLabel, row);
+        content.getStyleClass().add("video-shelf");
+
+        getStyleClass().add("video-shelf-cell");
+    }
+
+    private void forwardVerticalScroll(ScrollEvent event) {
+        if (event.getDeltaX() != 0 || event.getDeltaY() == 0 || event.isShiftDown() || getListView() == null) {
+            return;
+        }
+        Node sectionFlow = getListView().lookup(".virtual-flow");
+        if (sectionFlow != null) {
+            event.consume();
+            sectionFlow.fireEvent(event.copyFor(sectionFlow, sectionFlow));
+        }
+    }
+
+    @Override
+    protected void updateItem(VideoGroup group, boolean empty) {
+        super.updateItem(group, empty);
+
+        if (empty || group == null) {
+            row.setItems(FXCollections.observableList(Collections.emptyList()));
+            setGraphic(null);
+            return;
+        }
+
+        titleLabel.setText(group.getTitle());
+        row.setItems(FXCollections.observableList(group.getVideos() != null ? group.getVideos() : Collections.emptyList()));
+        row.scrollTo(0);
+
+        setGraphic(content);
+    }
+}
@@ -0,0 +1,71 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import okhttp3.Headers;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LazyHeaderMapTest {
+
+    private final Headers headers = Headers.of(
+        "Content-Type", "text/html",
+        "Set-Cookie", "a=1",
+        "Set-Cookie", "b=2");
+
+    @Test
+    void looksUpNamesCaseInsensitively() {
+        LazyHeaderMap map = new LazyHeaderMap(headers);
+
+        assertEquals(Collections.singletonList("text/html"), map.get("content-type"));
+        assertTrue(map.containsKey("CONTENT-TYPE"));
+    }
+
+    @Test
+    void returnsEveryValueOfRepeatedHeader() {
+        assertEquals(Arrays.asList("a=1", "b=2"), new LazyHeaderMap(headers).get("Set-Cookie"));
+    }
+
+    @Test
+    void missingHeaderIsAbsent() {
+        LazyHeaderMap map = new LazyHeaderMap(headers);
+
+        assertNull(map.get("ETag"));
+        assertFalse(map.containsKey("ETag"));
+        assertNull(map.get(42));
+    }
+
+    @Test
+    void sizeCountsDistinctNames() {
+        assertEquals(2, new LazyHeaderMap(headers).size());
+        assertTrue(new LazyHeaderMap(Headers.of()).isEmpty());
+    }
+
+    @Test
+    void iterationMatchesLookups() {
+        LazyHeaderMap map = new LazyHeaderMap(headers);
+
+        int count = 0;
+        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+            assertEquals(map.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals(2, count);
+    }
+
+    @Test
+    void isReadOnly() {
+        LazyHeaderMap map = new LazyHeaderMap(headers);
+
+        assertThrows(UnsupportedOperationException.class, () -> map.put("ETag", Collections.singletonList("x")));
+        assertThrows(UnsupportedOperationException.class, () -> map.entrySet().clear());
+    }
+}
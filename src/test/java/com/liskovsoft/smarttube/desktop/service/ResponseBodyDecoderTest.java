@@ -0,0 +1,119 @@
+package com.liskovsoft.smarttube.desktop.service;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ResponseBodyDecoderTest {
+
+    private static final MediaType HTML_UTF8 = MediaType.get("text/html; charset=utf-8");
+
+    @Test
+    void decodesUtf8Body() throws IOException {
+        String text = "<html>caf\u00E9 \u2013 \u65E5\u672C</html>";
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(1024);
+
+        assertEquals(text, decoder.decode(ResponseBody.create(text.getBytes(StandardCharsets.UTF_8), HTML_UTF8)));
+    }
+
+    @Test
+    void stripsByteOrderMark() throws IOException {
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(1024);
+
+        assertEquals("{}", decoder.decode(ResponseBody.create("\uFEFF{}".getBytes(StandardCharsets.UTF_8), HTML_UTF8)));
+    }
+
+    @Test
+    void usesCharsetFromContentType() throws IOException {
+        byte[] latin1 = "caf\u00E9".getBytes(StandardCharsets.ISO_8859_1);
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(1024);
+
+        assertEquals("caf\u00E9", decoder.decode(ResponseBody.create(latin1, MediaType.get("text/plain; charset=iso-8859-1"))));
+    }
+
+    @Test
+    void decodesUnknownLengthBodyLargerThanInitialBuffer() throws IOException {
+        String text = repeat("0123456789abcdef", 20_000);
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(1024 * 1024);
+
+        assertEquals(text, decoder.decode(unknownLength(text.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void rejectsDeclaredLengthOverLimit() {
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(16);
+
+        assertThrows(IOException.class, () -> decoder.decode(ResponseBody.create(new byte[17], HTML_UTF8)));
+    }
+
+    @Test
+    void rejectsStreamedBodyOverLimit() {
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(16);
+
+        assertThrows(IOException.class, () -> decoder.decode(unknownLength(new byte[64 * 1024])));
+    }
+
+    @Test
+    void acceptsBodyExactlyAtLimit() throws IOException {
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(4);
+
+        assertEquals("abcd", decoder.decode(unknownLength("abcd".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * The decoded String should be the only per-body copy, so a watch-page sized body allocates well under
+     * what {@code ResponseBody.string()} does with its intermediate byte array. Measured with the per-thread
+     * allocation counter, which is exact, rather than timing.
+     */
+    @Test
+    void allocatesLessThanStringPerBody() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        byte[] page = repeat("<div class=\"ytd-video\">watch page markup</div>\n", 10_000).getBytes(StandardCharsets.UTF_8);
+        ResponseBodyDecoder decoder = new ResponseBodyDecoder(4 * 1024 * 1024);
+        long threadId = Thread.currentThread().getId();
+
+        // Let the pooled buffer grow to the page size once, as it would after the first request
+        decoder.decode(ResponseBody.create(page, HTML_UTF8));
+
+        ResponseBody streamed = ResponseBody.create(page, HTML_UTF8);
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        decoder.decode(streamed);
+        long decoderBytes = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        ResponseBody materialised = ResponseBody.create(page, HTML_UTF8);
+        before = allocations.getThreadAllocatedBytes(threadId);
+        materialised.string();
+        long stringBytes = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        // string() holds the body as bytes and as the String; the decoder only as the String
+        double ratio = (double) decoderBytes / stringBytes;
+        assertTrue(ratio < 0.75, "decoder allocated " + decoderBytes + " bytes, string() " + stringBytes);
+    }
+
+    private static ResponseBody unknownLength(byte[] data) {
+        return ResponseBody.create(new Buffer().write(data), HTML_UTF8, -1);
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}